@@ -0,0 +1,157 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs an operation over the rows of an image by splitting them into bands and spreading the bands across a ForkJoinPool.
+ * Images too small to be worth splitting up are simply run on the calling thread. Interrupting the calling thread stops
+ * an operation between bands.
+ * @author Eric Leblanc
+ * @version 1.0, 19/02/2015.
+ * @since 1.8
+ */
+class BandExecutor {
+	private static final int MIN_PARALLEL_PIXELS = 1 << 16;	// The number of pixels below which an operation is run on the calling thread.
+	private static final int BANDS_PER_THREAD = 4;			// The number of bands per thread, so that uneven bands still balance out.
+
+	private static int parallelism = Runtime.getRuntime().availableProcessors();	// The number of threads operations are spread across.
+	private static ForkJoinPool pool;						// The pool running the bands, created on first use.
+
+	/**
+	 * The work done on one band of rows.
+	 */
+	interface Band {
+		/**
+		 * Runs the operation over a band of rows.
+		 * @param start the first row of the band.
+		 * @param end the row after the last row of the band.
+		 */
+		void run(int start, int end);
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs an operation over every row of an image.
+	 * @param rows the number of rows to cover.
+	 * @param width the width, in pixels, of each row. Used to decide whether splitting is worth it.
+	 * @param band the operation to run on each band.
+	 * @throws CancellationException if the calling thread was interrupted before every band had run.
+	 */
+	static void run(int rows, int width, Band band) {
+		checkInterrupted();
+		ForkJoinPool pool = getPool();
+		if ((long) rows * width < MIN_PARALLEL_PIXELS || rows < 2) {
+			band.run(0, rows);
+			return;
+		}
+		if (pool == null) {
+			// Run the bands one after the other, so that we can still stop in between.
+			int grain = Math.max(1, rows / BANDS_PER_THREAD);
+			for (int start = 0; start < rows; start += grain) {
+				checkInterrupted();
+				band.run(start, Math.min(rows, start + grain));
+			}
+			return;
+		}
+		int grain = Math.max(1, rows / (pool.getParallelism() * BANDS_PER_THREAD));
+		AtomicBoolean cancelled = new AtomicBoolean();
+		ForkJoinTask<Void> task = pool.submit(new BandTask(band, 0, rows, grain, cancelled));
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			// Stop handing out bands, and wait for the ones already running so that nothing touches the image afterwards.
+			cancelled.set(true);
+			task.quietlyJoin();
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		} catch (ExecutionException e) {
+			// Bands don't throw checked exceptions, so whatever went wrong can be passed straight on.
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Sets the number of threads operations are spread across. A value of 1 runs everything on the calling thread.
+	 * @param threads the number of threads to use.
+	 */
+	static synchronized void setParallelism(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException();
+		// Any operation still running on the old pool is left to finish there. Its idle threads die off by themselves.
+		if (threads != parallelism)
+			pool = null;
+		parallelism = threads;
+	}
+
+	/**
+	 * A getter method for the number of threads operations are spread across.
+	 * @return the number of threads in use.
+	 */
+	static synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Stops the operation if the calling thread has been interrupted. The interrupt is left set for the caller to see.
+	 * @throws CancellationException if the calling thread has been interrupted.
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+
+	/**
+	 * Returns the pool, creating it on first use.
+	 * @return the pool, or <code>null</code> if everything should run on the calling thread.
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (parallelism < 2)
+			return null;
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * A task which splits its rows in half until they are small enough to run as a single band.
+	 */
+	private static class BandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;	// The version of the serialized form, which Java asks every RecursiveAction for.
+		private Band band;									// The operation to run.
+		private int start;									// The first row covered by this task.
+		private int end;									// The row after the last row covered by this task.
+		private int grain;									// The number of rows at which we stop splitting.
+		private AtomicBoolean cancelled;					// A flag, shared by every task of the operation, for whether to skip the remaining bands.
+
+		/**
+		 * Creates a task covering a range of rows.
+		 * @param band the operation to run.
+		 * @param start the first row covered.
+		 * @param end the row after the last row covered.
+		 * @param grain the number of rows at which we stop splitting.
+		 * @param cancelled the flag for whether to skip the remaining bands.
+		 */
+		BandTask(Band band, int start, int end, int grain, AtomicBoolean cancelled) {
+			this.band = band;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.cancelled = cancelled;
+		}
+
+		protected void compute() {
+			if (cancelled.get())
+				return;
+			if (end - start <= grain) {
+				band.run(start, end);
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new BandTask(band, start, middle, grain, cancelled), new BandTask(band, middle, end, grain, cancelled));
+		}
+	}
+}
@@ -1,7 +1,11 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.awt.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.swing.JOptionPane;
 
@@ -17,13 +21,23 @@ public class Bitmap {
 	public static final int BLUE = 2;						// Public constant for RGB blue.
 	private static final int DATA_OFFSET_VALUE = 54;		// The data offset assumed for all Bitmaps used in this class.
 	private static final int COLOR_ENHANCE_VALUE = 40;		// The amount by which a color enhancement increases the RGB value.
+	static final int GAUSSIAN_PASSES = 3;					// The number of box blurs used to approximate a Gaussian blur.
+	static final int COMBINE_BUFFER_ROWS = 4;				// The number of rows of working space combineRow needs.
+	private static final int MAP_THRESHOLD = 1 << 20;		// The size, in bytes, of pixel data from which we memory-map a file rather than read it in strips.
+	private static final int STRIP_SIZE = 1 << 16;			// The size, in bytes, of the buffer used to move strips of rows in and out of a file.
+	private static final int TILE_SHIFT = 5;				// The power of two giving the number of rows held in each tile.
+	private static final int TILE_ROWS = 1 << TILE_SHIFT;	// The number of rows held in each tile.
+	
+	private static final ThreadLocal<ByteBuffer> stripBuffer = new ThreadLocal<ByteBuffer>();	// Each thread's pooled strip buffer, reused across reads and writes.
 	
 	private int dataOffset = DATA_OFFSET_VALUE;				// The offset, in bytes, after which the actual color information is stored.
 	private int width;										// The width, in pixels, of the image.
 	private int height;										// The height, in pixels, of the image.
 	private int numPaddingBytes;							// The number of padding bytes required in each row to satisfy the Bitmap standard.
 	private int[] header = new int[dataOffset];				// An array of bytes which holds the information up to the data offset.
-	private Color[][] pixels;								// A two-dimensional array of Color objects holding the image's RGB values.
+	private Tile[] tiles;									// Strips of rows holding the image's colours as packed 0xRRGGBB values, possibly shared with copies.
+	private Tile[] scratch;									// Tiles owned by this object alone, reused by operations which cannot work in place.
+	private boolean released;								// A flag for whether this object has let go of its tiles.
 	
 	//-------------------------------------------------------------------------------------------------------------------------
 	
@@ -37,182 +51,365 @@ public class Bitmap {
 	}
 	
 	/**
-	 * A private constructor for generating a deep copy of a Bitmap object. 
+	 * A private constructor for generating a copy of a Bitmap object. 
 	 * For use in this class only.
 	 * @param width the width of the bitmap.
 	 * @param height the height of the bitmap.
 	 * @param numPaddingBytes the amount of padding per row of data.
 	 * @param header the header data array corresponding to the Bitmap object.
-	 * @param pixels the Color array corresponding to the Bitmap object.
+	 * @param tiles the tiles corresponding to the Bitmap object, already counting this object as a holder.
 	 */
-	private Bitmap(int width, int height, int numPaddingBytes, int[] header, Color[][] pixels) {
+	private Bitmap(int width, int height, int numPaddingBytes, int[] header, Tile[] tiles) {
 		this.width = width;
 		this.height = height;
 		this.numPaddingBytes = numPaddingBytes;
 		this.header = header;
-		this.pixels = pixels;
+		this.tiles = tiles;
 	}
 
 	//-------------------------------------------------------------------------------------------------------------------------
 
 	/**
 	 * Reads in the specified bitmap file and the data for our use.
+	 * Larger files are memory-mapped, while smaller ones are read a strip of rows at a time.
 	 * @param file a File object pointing to the requested bitmap file.
 	 * @throws IOException if the file could not be read from the object provided.
 	 */
 	public void readBitmap(File file) throws IOException {
-		// Open and read the header of the file in question.
-		RandomAccessFile raf = new RandomAccessFile(file, "r");
-		raf.seek(0L);
-		for (int i = 0; i < header.length; i++) {
-			header[i] = raf.read();
-		}
-		
-		// Now we can determine our width and height.
-		for (int i = 0; i < 4; i++) {
-			width += header[i + 18] * Math.pow(256, i);
-			height += header[i + 22] * Math.pow(256, i);
-		}
-		
-		// Create the pixels. Bitmap reads from bottom of image to the top.
-		pixels = new Color[width][height];
-		for (int y = height - 1; y >= 0; y--) {
-			numPaddingBytes = 0;
-			for (int x = 0; x < width; x++) {
-				// Colors are formatted as BGR.
-				int bv = raf.read();
-				int gv = raf.read();
-				pixels[x][y] = new Color(raf.read(), gv, bv);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// Open and read the header of the file in question.
+			ByteBuffer head = ByteBuffer.allocate(header.length);
+			readFully(channel, head);
+			for (int i = 0; i < header.length; i++) {
+				header[i] = head.get(i) & 0xFF;
+			}
+			
+			// Now we can determine our width and height.
+			for (int i = 0; i < 4; i++) {
+				width += header[i + 18] * Math.pow(256, i);
+				height += header[i + 22] * Math.pow(256, i);
 			}
-			// Padding may be necessary when reading a line per the bitmap standard. Record the amount.
-			if (((width * 3) % 4) != 0) {
-				for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-					raf.read();
-					numPaddingBytes++;
+			
+			// Padding may be necessary in each row per the bitmap standard. Record the amount.
+			numPaddingBytes = (4 - (width * 3) % 4) % 4;
+			int rowSize = width * 3 + numPaddingBytes;
+			long dataSize = (long) rowSize * height;
+			
+			// Create the pixels. Bitmap reads from bottom of image to the top.
+			tiles = newTiles();
+			scratch = null;
+			if (dataSize >= MAP_THRESHOLD) {
+				// Let the operating system page the pixel data straight in.
+				if (channel.size() < dataOffset + dataSize)
+					throw new EOFException();
+				MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataSize);
+				for (int y = height - 1; y >= 0; y--) {
+					decodeRow(data, y);
+				}
+			}
+			else {
+				// Pull in as many whole rows as fit in the strip buffer at a time.
+				ByteBuffer strip = getStripBuffer(rowSize);
+				int rowsPerStrip = strip.capacity() / rowSize;
+				channel.position(dataOffset);
+				for (int y = height - 1; y >= 0; y -= rowsPerStrip) {
+					int rows = Math.min(rowsPerStrip, y + 1);
+					strip.clear();
+					strip.limit(rows * rowSize);
+					readFully(channel, strip);
+					strip.flip();
+					for (int i = 0; i < rows; i++) {
+						decodeRow(strip, y - i);
+					}
 				}
 			}
 		}
-		raf.close();
 	}
 	
 	/**
 	 * Writes the Bitmap object information to a bitmap file specified by the parameter.
+	 * Rows are encoded into a strip buffer and written out a strip at a time, into a temporary file beside the destination
+	 * which then takes its place. The file being replaced may still be mapped from when it was read in, so it is never
+	 * changed in place.
 	 * @param file a File object pointing to the requested destination file.
 	 * @throws IOException if the file could not be written to the location specified.
 	 */
 	public void writeBitmap(File file) throws IOException {
-		RandomAccessFile raf = new RandomAccessFile(file, "rw");
-		raf.seek(0L);
-		for (int i = 0; i < header.length; i++) {
-			raf.write(header[i]);
-		}
-		for (int y = height - 1; y >= 0 ; y--) {
-			for (int x = 0; x < width; x++) {
-				raf.write(pixels[x][y].getBlue());
-				raf.write(pixels[x][y].getGreen());
-				raf.write(pixels[x][y].getRed());
+		Path target = file.toPath().toAbsolutePath();
+		Path temp = Files.createFile(target.resolveSibling("." + target.getFileName() + "." + System.nanoTime() + ".tmp"));
+		boolean written = false;
+		try {
+			// Keep the permissions of the file being replaced.
+			if (Files.exists(target)) {
+				try {
+					Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+				} catch (UnsupportedOperationException e) { /* Not a POSIX file system, so there is nothing to copy. */ }
 			}
-			// Generate padding to match BMP specification.
-			for (int i = 0; i < numPaddingBytes; i++) {
-				raf.write(0);
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer head = ByteBuffer.allocate(header.length);
+				for (int i = 0; i < header.length; i++) {
+					head.put((byte) header[i]);
+				}
+				head.flip();
+				writeFully(channel, head);
+				
+				// Fill the strip buffer with as many whole rows as fit, then write it out.
+				int rowSize = width * 3 + numPaddingBytes;
+				ByteBuffer strip = getStripBuffer(rowSize);
+				int rowsPerStrip = strip.capacity() / rowSize;
+				for (int y = height - 1; y >= 0; y -= rowsPerStrip) {
+					int rows = Math.min(rowsPerStrip, y + 1);
+					strip.clear();
+					for (int i = 0; i < rows; i++) {
+						encodeRow(strip, y - i);
+					}
+					strip.flip();
+					writeFully(channel, strip);
+				}
 			}
+			
+			// Swap the new file in whole, so that anyone still mapping the old one keeps seeing it as it was.
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		} finally {
+			if (!written)
+				Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Decodes one row of BGR data, plus its padding, from a buffer into the pixel grid.
+	 * @param src the buffer, positioned at the start of the row.
+	 * @param y the row of the image being decoded.
+	 */
+	private void decodeRow(ByteBuffer src, int y) {
+		int[] pixels = rowData(y);
+		for (int i = rowOffset(y), end = i + width; i < end; i++) {
+			// Colors are formatted as BGR.
+			int bv = src.get() & 0xFF;
+			int gv = src.get() & 0xFF;
+			pixels[i] = ((src.get() & 0xFF) << 16) | (gv << 8) | bv;
+		}
+		src.position(src.position() + numPaddingBytes);
+	}
+	
+	/**
+	 * Encodes one row of the pixel grid as BGR data, plus its padding, into a buffer.
+	 * @param dst the buffer to append the row to.
+	 * @param y the row of the image being encoded.
+	 */
+	private void encodeRow(ByteBuffer dst, int y) {
+		int[] pixels = rowData(y);
+		for (int i = rowOffset(y), end = i + width; i < end; i++) {
+			int rgb = pixels[i];
+			dst.put((byte) rgb);
+			dst.put((byte) (rgb >> 8));
+			dst.put((byte) (rgb >> 16));
+		}
+		// Generate padding to match BMP specification.
+		for (int i = 0; i < numPaddingBytes; i++) {
+			dst.put((byte) 0);
+		}
+	}
+	
+	/**
+	 * Returns this thread's strip buffer, growing it first if it can't hold at least one row.
+	 * @param rowSize the size, in bytes, of a row including its padding.
+	 * @return a direct buffer with room for one or more whole rows.
+	 */
+	private static ByteBuffer getStripBuffer(int rowSize) {
+		ByteBuffer strip = stripBuffer.get();
+		if (strip == null || strip.capacity() < rowSize) {
+			strip = ByteBuffer.allocateDirect(Math.max(STRIP_SIZE, rowSize));
+			stripBuffer.set(strip);
+		}
+		return strip;
+	}
+	
+	/**
+	 * Reads from a channel until the buffer is full.
+	 * @param channel the channel to read from.
+	 * @param dst the buffer to fill.
+	 * @throws IOException if the channel runs out before the buffer is full.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer dst) throws IOException {
+		while (dst.hasRemaining()) {
+			if (channel.read(dst) < 0)
+				throw new EOFException();
+		}
+	}
+	
+	/**
+	 * Writes the whole of a buffer out to a channel.
+	 * @param channel the channel to write to.
+	 * @param src the buffer to drain.
+	 * @throws IOException if the channel could not be written to.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			channel.write(src);
 		}
-		raf.close();
 	}
 	
 	//-------------------------------------------------------------------------------------------------------------------------
 	
 	/**
-	 * Flips the image vertically.
+	 * Flips the image vertically. Rows are swapped in place.
 	 */
 	public void flip() {
-		// Allocate new memory for the results.
-		Color[][] temp = new Color[width][height];
-		
-		// Generate a flipped version of the original.
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				temp[x][y] = pixels[x][height - y - 1];
+		claimTiles();
+		// Each band of the top half swaps with its mirror in the bottom half.
+		BandExecutor.run(height / 2, width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				for (int y = start; y < end; y++) {
+					int[] topRow = rowData(y);
+					int[] bottomRow = rowData(height - 1 - y);
+					for (int top = rowOffset(y), bottom = rowOffset(height - 1 - y), x = 0; x < width; x++) {
+						int rgb = topRow[top + x];
+						topRow[top + x] = bottomRow[bottom + x];
+						bottomRow[bottom + x] = rgb;
+					}
+				}
 			}
-		}
-		pixels = temp;
+		});
 	}
 	
 	/**
 	 * Averages a pixel's surrounding colour values to generate a blur effect.
 	 */
 	public void blur() {
-		// Allocate new memory for the results.
-		Color[][] temp = new Color[width][height];
+		blur(1);
+	}
+	
+	/**
+	 * Averages the colour values of every pixel within a square around each pixel to generate a blur effect.
+	 * Neighbours which fall outside of the image are left out of the average. The cost per pixel is the same for any radius.
+	 * @param radius the number of pixels either side of a pixel which are included in its average.
+	 */
+	public void blur(final int radius) {
+		if (radius < 1)
+			return;
 		
-		// Loop through all of the pixels.
-		for (int y = 0; y < height; y++) {
+		// The results go into the scratch buffer, since we still need the original neighbours.
+		final Tile[] temp = getScratch();
+		BandExecutor.run(height, width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				blurRows(radius, start, end, temp);
+			}
+		});
+		swapScratch();
+	}
+	
+	/**
+	 * Blurs a band of rows into another buffer. Rows within the radius outside the band are read but not written,
+	 * so bands can be blurred side by side.
+	 * @param radius the number of pixels either side of a pixel which are included in its average.
+	 * @param start the first row of the band.
+	 * @param end the row after the last row of the band.
+	 * @param temp the tiles to write the blurred rows into.
+	 */
+	private void blurRows(int radius, int start, int end, Tile[] temp) {
+		// Running totals of each column over the rows currently within the radius.
+		int[] rColumns = new int[width];
+		int[] gColumns = new int[width];
+		int[] bColumns = new int[width];
+		for (int y = Math.max(0, start - radius); y <= start + radius && y < height; y++) {
+			addRow(y, 1, rColumns, gColumns, bColumns);
+		}
+		
+		for (int y = start; y < end; y++) {
+			int numRows = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+			int[] out = temp[y >> TILE_SHIFT].data;
+			int offset = rowOffset(y);
+			
+			// Slide along the row, keeping a running total of the columns within the radius.
+			long rTotal = 0;
+			long gTotal = 0;
+			long bTotal = 0;
+			for (int x = 0; x <= radius && x < width; x++) {
+				rTotal += rColumns[x];
+				gTotal += gColumns[x];
+				bTotal += bColumns[x];
+			}
 			for (int x = 0; x < width; x++) {
-				// We need to keep track of the surrounding pixel values for our average.
-				int rTotal = 0;
-				int gTotal = 0;
-				int bTotal = 0;
-				int num = 0;
-							
-				// Now we add the values of the surrounding pixels, if they exist.
 				if (x > 0) {
-					if (y > 0) {
-						rTotal += pixels[x - 1][y - 1].getRed();
-						gTotal += pixels[x - 1][y - 1].getGreen();
-						bTotal += pixels[x - 1][y - 1].getBlue();
-						num++;
+					if (x + radius < width) {
+						rTotal += rColumns[x + radius];
+						gTotal += gColumns[x + radius];
+						bTotal += bColumns[x + radius];
 					}
-					rTotal += pixels[x - 1][y].getRed();
-					gTotal += pixels[x - 1][y].getGreen();
-					bTotal += pixels[x - 1][y].getBlue();
-					num++;
-					if (y < height - 1) {
-						rTotal += pixels[x - 1][y + 1].getRed();
-						gTotal += pixels[x - 1][y + 1].getGreen();
-						bTotal += pixels[x - 1][y + 1].getBlue();
-						num++;
-					}
-				}
-				if (y > 0) {
-					rTotal += pixels[x][y - 1].getRed();
-					gTotal += pixels[x][y - 1].getGreen();
-					bTotal += pixels[x][y - 1].getBlue();
-					num++;
-				}
-				rTotal += pixels[x][y].getRed();
-				gTotal += pixels[x][y].getGreen();
-				bTotal += pixels[x][y].getBlue();
-				num++;
-				if (y < height - 1) {
-					rTotal += pixels[x][y + 1].getRed();
-					gTotal += pixels[x][y + 1].getGreen();
-					bTotal += pixels[x][y + 1].getBlue();
-					num++;
-				}
-				if (x < width - 1) {
-					if (y > 0) {
-						rTotal += pixels[x + 1][y - 1].getRed();
-						gTotal += pixels[x + 1][y - 1].getGreen();
-						bTotal += pixels[x + 1][y - 1].getBlue();
-						num++;
-					}
-					rTotal += pixels[x + 1][y].getRed();
-					gTotal += pixels[x + 1][y].getGreen();
-					bTotal += pixels[x + 1][y].getBlue();
-					num++;
-					if (y < height - 1) {
-						rTotal += pixels[x + 1][y + 1].getRed();
-						gTotal += pixels[x + 1][y + 1].getGreen();
-						bTotal += pixels[x + 1][y + 1].getBlue();
-						num++;
+					if (x - radius - 1 >= 0) {
+						rTotal -= rColumns[x - radius - 1];
+						gTotal -= gColumns[x - radius - 1];
+						bTotal -= bColumns[x - radius - 1];
 					}
 				}
 				
 				// Take the average and use this as the new colour value.
-				temp[x][y] = new Color(rTotal / num, gTotal / num, bTotal / num);
+				int num = (Math.min(width - 1, x + radius) - Math.max(0, x - radius) + 1) * numRows;
+				out[offset + x] = ((int) (rTotal / num) << 16) | ((int) (gTotal / num) << 8) | (int) (bTotal / num);
 			}
+			
+			// Move the column totals down a row.
+			if (y + radius + 1 < height)
+				addRow(y + radius + 1, 1, rColumns, gColumns, bColumns);
+			if (y - radius >= 0)
+				addRow(y - radius, -1, rColumns, gColumns, bColumns);
+		}
+	}
+	
+	/**
+	 * Approximates a Gaussian blur by applying three box blurs in a row. The cost per pixel is the same for any sigma.
+	 * @param sigma the standard deviation, in pixels, of the Gaussian being approximated.
+	 */
+	public void gaussianBlur(double sigma) {
+		for (int radius : gaussianBoxRadii(sigma, GAUSSIAN_PASSES)) {
+			blur(radius);
+		}
+	}
+	
+	/**
+	 * Works out the box blur radii whose combined effect comes closest to a Gaussian blur.
+	 * @param sigma the standard deviation, in pixels, of the Gaussian being approximated.
+	 * @param passes the number of box blurs to be applied.
+	 * @return the radius of each box blur, in the order they should be applied.
+	 */
+	static int[] gaussianBoxRadii(double sigma, int passes) {
+		// The widest odd box width which doesn't overshoot, and the next one up.
+		int lower = (int) Math.floor(Math.sqrt(12 * sigma * sigma / passes + 1));
+		if (lower % 2 == 0)
+			lower--;
+		int upper = lower + 2;
+		
+		// The number of passes using the lower width which gets the variance closest to sigma squared.
+		int numLower = (int) Math.round((12 * sigma * sigma - passes * lower * lower - 4 * passes * lower - 3 * passes) / (-4.0 * lower - 4));
+		int[] radii = new int[passes];
+		for (int i = 0; i < passes; i++) {
+			radii[i] = (((i < numLower) ? lower : upper) - 1) / 2;
+		}
+		return radii;
+	}
+	
+	/**
+	 * Adds or removes a row's colour values to or from a set of column totals.
+	 * @param y the row to add or remove.
+	 * @param sign <code>1</code> to add the row, or <code>-1</code> to remove it.
+	 * @param rColumns the red totals of each column.
+	 * @param gColumns the green totals of each column.
+	 * @param bColumns the blue totals of each column.
+	 */
+	private void addRow(int y, int sign, int[] rColumns, int[] gColumns, int[] bColumns) {
+		int[] pixels = rowData(y);
+		for (int x = 0, i = rowOffset(y); x < width; x++, i++) {
+			int rgb = pixels[i];
+			rColumns[x] += sign * ((rgb >> 16) & 0xFF);
+			gColumns[x] += sign * ((rgb >> 8) & 0xFF);
+			bColumns[x] += sign * (rgb & 0xFF);
 		}
-		pixels = temp;
 	}
 	
 	/**
@@ -220,17 +417,23 @@ public class Bitmap {
 	 * @param selection an int defining which colour to enhance.
 	 */
 	public void enhanceColor(int selection) {
-		// We need a temporary pixel grid to store the results.
-		Color[][] temp = new Color[width][height];
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				// Enhance the value of the colour selected earlier.
-				temp[x][y] = new Color(((selection == RED) ? ((pixels[x][y].getRed() < 255 - COLOR_ENHANCE_VALUE) ? pixels[x][y].getRed() + COLOR_ENHANCE_VALUE : 255) : pixels[x][y].getRed()),
-										((selection == GREEN) ? ((pixels[x][y].getGreen() < 255 - COLOR_ENHANCE_VALUE) ? pixels[x][y].getGreen() + COLOR_ENHANCE_VALUE : 255) : pixels[x][y].getGreen()),
-										((selection == BLUE) ? ((pixels[x][y].getBlue() < 255 - COLOR_ENHANCE_VALUE) ? pixels[x][y].getBlue() + COLOR_ENHANCE_VALUE : 255) : pixels[x][y].getBlue()));
+		// Work out where the selected channel sits in a packed pixel.
+		final int shift = (selection == RED) ? 16 : (selection == GREEN) ? 8 : (selection == BLUE) ? 0 : -1;
+		if (shift < 0)
+			return;
+		BandExecutor.run(tiles.length, TILE_ROWS * width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				for (int t = start; t < end; t++) {
+					int[] pixels = writableTile(t);
+					for (int i = 0; i < pixels.length; i++) {
+						// Enhance the value of the colour selected earlier.
+						int value = (pixels[i] >> shift) & 0xFF;
+						value = (value < 255 - COLOR_ENHANCE_VALUE) ? value + COLOR_ENHANCE_VALUE : 255;
+						pixels[i] = (pixels[i] & ~(0xFF << shift)) | (value << shift);
+					}
+				}
 			}
-		}
-		pixels = temp;
+		});
 	}
 	
 	/**
@@ -238,11 +441,7 @@ public class Bitmap {
 	 * @param images an array of BufferedImage objects, with equal dimensions, to combine into this object.
 	 * @throws Exception a generic exception in the event the image dimensions don't all match up.
 	 */
-	public void combine(BufferedImage[] images) throws Exception {
-		// We need a temporary pixel grid to store the results.
-		Color[][] temp = new Color[width][height];
-		int numOfImages = images.length + 1;
-		
+	public void combine(final BufferedImage[] images) throws Exception {
 		// First we need to make dimension checks.
 		for (BufferedImage image : images) {
 			if (image.getWidth() != width || image.getHeight() != height)
@@ -250,24 +449,98 @@ public class Bitmap {
 				throw new Exception();
 		}
 		
-		// Cycle through all pixels.
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				// Take the average of each colour value for every pixel we find and write that value.
-				int rAvg = pixels[x][y].getRed();
-				int gAvg = pixels[x][y].getGreen();
-				int bAvg = pixels[x][y].getBlue();
-				// And now for the images in the array...
-				for (BufferedImage image : images) {
-					Color color = new Color(image.getRGB(x, y));
-					rAvg += color.getRed();
-					gAvg += color.getGreen();
-					bAvg += color.getBlue();
+		BandExecutor.run(tiles.length, TILE_ROWS * width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				int[] buffer = new int[COMBINE_BUFFER_ROWS * width];
+				for (int t = start; t < end; t++) {
+					int[] pixels = writableTile(t);
+					for (int y = t << TILE_SHIFT, last = Math.min(height, y + TILE_ROWS); y < last; y++) {
+						combineRow(pixels, rowOffset(y), width, images, y, buffer);
+					}
 				}
-				temp[x][y] = new Color(rAvg / numOfImages, gAvg / numOfImages, bAvg / numOfImages);
+			}
+		});
+	}
+	
+	/**
+	 * Averages one row of pixels with the same row of each of a set of images.
+	 * @param row the array holding the row, which receives the result.
+	 * @param offset the index in the array at which the row starts.
+	 * @param width the width, in pixels, of the row.
+	 * @param images the images to average with.
+	 * @param y the row of the images to use.
+	 * @param buffer a working buffer of at least <code>COMBINE_BUFFER_ROWS * width</code> values.
+	 */
+	static void combineRow(int[] row, int offset, int width, BufferedImage[] images, int y, int[] buffer) {
+		// The buffer holds a line from an image, followed by the running totals for each colour.
+		int numOfImages = images.length + 1;
+		int line = 0;
+		int rTotals = width;
+		int gTotals = 2 * width;
+		int bTotals = 3 * width;
+		for (int x = 0; x < width; x++) {
+			int rgb = row[offset + x];
+			buffer[rTotals + x] = (rgb >> 16) & 0xFF;
+			buffer[gTotals + x] = (rgb >> 8) & 0xFF;
+			buffer[bTotals + x] = rgb & 0xFF;
+		}
+		// And now for the images in the array, each row pulled out in one go...
+		for (BufferedImage image : images) {
+			image.getRGB(0, y, width, 1, buffer, line, width);
+			for (int x = 0; x < width; x++) {
+				int rgb = buffer[line + x];
+				buffer[rTotals + x] += (rgb >> 16) & 0xFF;
+				buffer[gTotals + x] += (rgb >> 8) & 0xFF;
+				buffer[bTotals + x] += rgb & 0xFF;
 			}
 		}
-		pixels = temp;
+		// Take the average of each colour value and write it back.
+		for (int x = 0; x < width; x++) {
+			row[offset + x] = ((buffer[rTotals + x] / numOfImages) << 16) | ((buffer[gTotals + x] / numOfImages) << 8) | (buffer[bTotals + x] / numOfImages);
+		}
+	}
+	
+	/**
+	 * Returns the lookup tables for a colour enhancement.
+	 * @param selection an int defining which colour to enhance.
+	 * @return the red, green and blue tables, each mapping an old colour value to its new one.
+	 */
+	static int[][] enhanceTable(int selection) {
+		int[][] table = new int[3][256];
+		for (int c = 0; c < 3; c++) {
+			for (int v = 0; v < 256; v++) {
+				table[c][v] = (c == selection) ? ((v < 255 - COLOR_ENHANCE_VALUE) ? v + COLOR_ENHANCE_VALUE : 255) : v;
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * Replaces every row of the image with a transformed copy of one of its rows, in a single pass.
+	 * @param transform decides which row each row is copied from, and what is done to it.
+	 */
+	void transformRows(final RowTransform transform) {
+		final Tile[] temp = getScratch();
+		BandExecutor.run(height, width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				int[] buffer = new int[transform.bufferSize()];
+				for (int y = start; y < end; y++) {
+					int source = transform.sourceRow(y);
+					int[] row = temp[y >> TILE_SHIFT].data;
+					System.arraycopy(rowData(source), rowOffset(source), row, rowOffset(y), width);
+					transform.apply(row, rowOffset(y), y, buffer);
+				}
+			}
+		});
+		swapScratch();
+	}
+	
+	/**
+	 * Starts recording a chain of operations on this object, to be applied together in as few passes as possible.
+	 * @return an empty pipeline for this object.
+	 */
+	public BitmapPipeline pipeline() {
+		return new BitmapPipeline(this);
 	}
 	
 	//-------------------------------------------------------------------------------------------------------------------------
@@ -278,14 +551,38 @@ public class Bitmap {
 	 */
 	public BufferedImage getImage() {
 		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				image.setRGB(x, y, pixels[x][y].getRGB());
+		// Our layout matches the raster of an INT_RGB image, so the whole grid can be copied straight in.
+		final int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		BandExecutor.run(tiles.length, TILE_ROWS * width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				for (int t = start; t < end; t++) {
+					System.arraycopy(tiles[t].data, 0, data, (t << TILE_SHIFT) * width, tiles[t].data.length);
+				}
 			}
-		}
+		});
 		return image;
 	}
 	
+	/**
+	 * Returns the colour of a single pixel.
+	 * @param x the column of the pixel, from the left.
+	 * @param y the row of the pixel, from the top.
+	 * @return the colour packed as 0xRRGGBB.
+	 */
+	public int getRGB(int x, int y) {
+		return rowData(y)[rowOffset(y) + x];
+	}
+	
+	/**
+	 * Sets the colour of a single pixel. Only the tile holding the pixel is copied, if it is shared.
+	 * @param x the column of the pixel, from the left.
+	 * @param y the row of the pixel, from the top.
+	 * @param rgb the colour packed as 0xRRGGBB. Any alpha bits are dropped.
+	 */
+	public void setRGB(int x, int y, int rgb) {
+		writableTile(y >> TILE_SHIFT)[rowOffset(y) + x] = rgb & 0xFFFFFF;
+	}
+	
 	/**
 	 * A getter method for the width of the bitmap.
 	 * @return an integer for the width of the image.
@@ -302,14 +599,218 @@ public class Bitmap {
 		return this.height;
 	}
 	
+	/**
+	 * Sets the number of threads that operations on bitmaps are spread across. Small images are always handled on a single thread.
+	 * @param threads the number of threads to use, at least 1.
+	 */
+	public static void setParallelism(int threads) {
+		BandExecutor.setParallelism(threads);
+	}
+	
 	//-------------------------------------------------------------------------------------------------------------------------
 	
 	/**
-	 * Returns a deep copy of this Bitmap object.
-	 * @return a deep copy of this Bitmap object.
+	 * Returns a copy of this Bitmap object. The copy shares our tiles until either of us changes them, so any change to one 
+	 * is never seen by the other.
+	 * @return a copy of this Bitmap object.
 	 */
 	public Bitmap copy() {
-		return new Bitmap(this.width, this.height, this.numPaddingBytes, this.header, this.pixels);
+		Tile[] shared = this.tiles.clone();
+		for (Tile tile : shared) {
+			tile.refs.incrementAndGet();
+		}
+		return new Bitmap(this.width, this.height, this.numPaddingBytes, this.header, shared);
+	}
+	
+	/**
+	 * Lets go of this Bitmap object's tiles, for when it is thrown away, so that whoever else holds them can change them 
+	 * without copying them first. The object may still be read afterwards, but must never be changed. Releasing it again
+	 * does nothing.
+	 */
+	public synchronized void release() {
+		if (released)
+			return;
+		released = true;
+		for (Tile tile : tiles) {
+			tile.refs.decrementAndGet();
+		}
+		scratch = null;
+	}
+	
+	/**
+	 * Lets go of the scratch tiles, for when this object is about to be kept, as in the edit history, rather than changed.
+	 * Any operation which needs them again makes new ones.
+	 */
+	public void dropScratch() {
+		scratch = null;
+	}
+	
+	/**
+	 * A getter method for the number of tiles the image is split into. For use by the edit history.
+	 * @return the number of tiles.
+	 */
+	int getTileCount() {
+		return tiles.length;
+	}
+	
+	/**
+	 * Returns a tile's data for reading. It must not be written to.
+	 * @param t the index of the tile.
+	 * @return the rows of the tile, as packed 0xRRGGBB values.
+	 */
+	int[] readTile(int t) {
+		return tiles[t].data;
+	}
+	
+	/**
+	 * Tells whether a tile is shared with another Bitmap object, in which case the two are known to match there.
+	 * @param other a Bitmap object with the same dimensions.
+	 * @param t the index of the tile.
+	 * @return <code>true</code> if both objects hold the very same tile.
+	 */
+	boolean sharesTile(Bitmap other, int t) {
+		return tiles[t] == other.tiles[t];
+	}
+	
+	/**
+	 * Returns a copy of this Bitmap object with some of its tiles replaced. The rest are shared as in {@link #copy()}.
+	 * @param changed the data of each replaced tile, or <code>null</code> for the tiles to keep.
+	 * @return the new Bitmap object.
+	 */
+	Bitmap withTiles(int[][] changed) {
+		Tile[] result = this.tiles.clone();
+		for (int t = 0; t < result.length; t++) {
+			if (changed[t] != null)
+				result[t] = new Tile(changed[t]);
+			else
+				result[t].refs.incrementAndGet();
+		}
+		return new Bitmap(this.width, this.height, this.numPaddingBytes, this.header, result);
+	}
+	
+	/**
+	 * A transformation which builds each row of an image from a single row of the original.
+	 */
+	interface RowTransform {
+		/**
+		 * Works out which row of the original an output row is built from.
+		 * @param y the output row.
+		 * @return the row of the original to copy.
+		 */
+		int sourceRow(int y);
+		
+		/**
+		 * Gives the size of the working buffer apply needs.
+		 * @return the number of values the buffer must hold.
+		 */
+		int bufferSize();
+		
+		/**
+		 * Transforms a copied row in place.
+		 * @param row the array holding the row.
+		 * @param offset the index in the array at which the row starts.
+		 * @param y the output row.
+		 * @param buffer a working buffer belonging to the calling thread.
+		 */
+		void apply(int[] row, int offset, int y, int[] buffer);
+	}
+	
+	/**
+	 * A strip of rows of the image, which may be shared between copies. Whoever changes a shared tile copies it first.
+	 */
+	private static class Tile {
+		final int[] data;									// The rows of the strip, as packed 0xRRGGBB values.
+		final AtomicInteger refs = new AtomicInteger(1);	// The number of Bitmap objects holding this tile and not yet released.
+		
+		Tile(int[] data) {
+			this.data = data;
+		}
+	}
+	
+	/**
+	 * Creates a fresh set of tiles covering the image.
+	 * @return an array of tiles held by no one else.
+	 */
+	private Tile[] newTiles() {
+		Tile[] result = new Tile[(height + TILE_ROWS - 1) >> TILE_SHIFT];
+		for (int t = 0; t < result.length; t++) {
+			result[t] = new Tile(new int[Math.min(TILE_ROWS, height - (t << TILE_SHIFT)) * width]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the array holding a row of the image. It must not be written to unless the tile is known to be ours alone.
+	 * @param y the row of the image.
+	 * @return the data of the tile holding the row.
+	 */
+	private int[] rowData(int y) {
+		return tiles[y >> TILE_SHIFT].data;
+	}
+	
+	/**
+	 * Returns where a row starts within its tile.
+	 * @param y the row of the image.
+	 * @return the index of the row's first pixel in the tile's data.
+	 */
+	private int rowOffset(int y) {
+		return (y & (TILE_ROWS - 1)) * width;
+	}
+	
+	/**
+	 * Returns a tile's data for writing, copying the tile first if anyone else holds it.
+	 * @param t the index of the tile.
+	 * @return data belonging to this object alone.
+	 */
+	private int[] writableTile(int t) {
+		Tile tile = tiles[t];
+		if (tile.refs.get() > 1) {
+			tiles[t] = new Tile(tile.data.clone());
+			tile.refs.decrementAndGet();
+		}
+		return tiles[t].data;
+	}
+	
+	/**
+	 * Makes sure that every tile belongs to this object alone, so that rows can be changed anywhere in the image.
+	 */
+	private void claimTiles() {
+		BandExecutor.run(tiles.length, TILE_ROWS * width, new BandExecutor.Band() {
+			public void run(int start, int end) {
+				for (int t = start; t < end; t++) {
+					writableTile(t);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the scratch tiles, creating any that are missing.
+	 * @return tiles covering the image whose contents may be overwritten.
+	 */
+	private Tile[] getScratch() {
+		if (scratch == null || scratch.length != tiles.length)
+			scratch = new Tile[tiles.length];
+		for (int t = 0; t < scratch.length; t++) {
+			if (scratch[t] == null || scratch[t].data.length != tiles[t].data.length)
+				scratch[t] = new Tile(new int[tiles[t].data.length]);
+		}
+		return scratch;
+	}
+	
+	/**
+	 * Makes the scratch tiles the current image. The old tiles are kept as the next scratch tiles, unless they are shared.
+	 */
+	private void swapScratch() {
+		Tile[] temp = tiles;
+		tiles = scratch;
+		scratch = temp;
+		for (int t = 0; t < scratch.length; t++) {
+			if (scratch[t].refs.get() > 1) {
+				scratch[t].refs.decrementAndGet();
+				scratch[t] = null;
+			}
+		}
 	}
 	
 	/**
@@ -321,13 +822,10 @@ public class Bitmap {
 		// Compare all simple instance variables first.
 		if (this.dataOffset != ((Bitmap) bmp).dataOffset || this.width != ((Bitmap) bmp).width || this.height != ((Bitmap) bmp).height || !header.equals(((Bitmap) bmp).header))
 			return false;
-		// Then check the color grid.
-		for (int x = 0; x < this.width; x++) {
-			for (int y = 0; y < this.height; y++) {
-				if (!this.pixels[x][y].equals(((Bitmap) bmp).pixels[x][y])) {
-					return false;
-				}
-			}
+		// Then check the color grid. Tiles we share are equal without looking.
+		for (int t = 0; t < tiles.length; t++) {
+			if (tiles[t] != ((Bitmap) bmp).tiles[t] && !Arrays.equals(tiles[t].data, ((Bitmap) bmp).tiles[t].data))
+				return false;
 		}
 		return true;
 		
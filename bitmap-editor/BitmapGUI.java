@@ -7,6 +7,8 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * This is a GUI for manipulating Bitmap objects and corresponding images. 
@@ -27,8 +29,7 @@ public class BitmapGUI extends JFrame {
 	private File mostRecentInputFile;													// The bitmap file that was most recently opened or saved to.
 	private Bitmap lastSavedBMP;														// The Bitmap object last subject to a save operation.
 	
-	private Stack<Bitmap> undoHistory;													// A Stack implementation of the undo function.
-	private Stack<Bitmap> redoHistory;													// A Stack implementation of the redo function.
+	private EditHistory history = new EditHistory();									// The undo and redo history, kept within a memory budget.
 	
 	private JLabel imageDisplayed = new JLabel("");										// A JLabel to handle the display the center image.
 	private JLabel state;																// A JLabel to handle the display of the modified variable.
@@ -40,7 +41,10 @@ public class BitmapGUI extends JFrame {
 	private JButton undoButton = new JButton("Undo");									// A globally accessible button for undoing the last change made.
 	private JButton redoButton = new JButton("Redo");									// A globally accessible button for redoing the last change made.
 	private Component centerBox = Box.createRigidArea(INITIAL_CENTER_DIM);				// A globally accessible whitespace box for between the center view and image buttons on the main window.
+	private JProgressBar progress = new JProgressBar();									// An indicator shown while an operation runs in the background.
+	private JButton cancelButton = new JButton("Cancel");								// A globally accessible button for stopping an operation part way through.
 
+	private JMenu file = new JMenu("File");												// A globally accessible menu, so that it can be disabled while an operation runs.
 	private JMenuItem save = new JMenuItem("Save");										// A globally accessible menu button for saving to the mostRecentInputFile.
 	private JMenuItem saveAs = new JMenuItem("Save as...");								// A globally accessible menu button for saving to a file of one's choosing.
 	private JMenuItem close = new JMenuItem("Close");									// A globally accessible menu button for closing the opened image.
@@ -49,6 +53,9 @@ public class BitmapGUI extends JFrame {
 	private JWindow imageChooser;														// A JWindow for the Combine function UI.
 	private Container imageDisplay;														// A globally accessible Container for the Combine function image preview icons.
 	
+	private SwingWorker<Bitmap, Void> job;												// The operation currently running in the background, if any.
+	private boolean[] enabledBeforeJob;													// Whether each control was enabled before the running operation disabled them.
+	
 	//-----------------------------------------------------------------------------------------------------------------------------------------
 	
 	/**
@@ -120,7 +127,6 @@ public class BitmapGUI extends JFrame {
 		
 		// Add the menu and appropriate buttons.
 		JMenuBar menu = new JMenuBar();
-		JMenu file = new JMenu("File");
 		JMenuItem open = new JMenuItem("Open Image...");
 		JMenuItem exit = new JMenuItem("Exit");
 		setJMenuBar(menu);
@@ -155,6 +161,11 @@ public class BitmapGUI extends JFrame {
 		topInfo.add(Box.createRigidArea(new Dimension(1, state.getFont().getSize() * 2)));
 		bottomStuff.add(undoButton);
 		bottomStuff.add(redoButton);
+		bottomStuff.add(progress);
+		bottomStuff.add(cancelButton);
+		progress.setIndeterminate(true);
+		progress.setVisible(false);
+		cancelButton.setVisible(false);
 		optionButtons.add(Box.createVerticalGlue());
 		optionButtons.add(flipButton);
 		optionButtons.add(Box.createRigidArea(new Dimension(OPTION_BUTTONS_SPTR_X, OPTION_BUTTONS_SPTR_Y)));
@@ -170,58 +181,43 @@ public class BitmapGUI extends JFrame {
 		JButton redButton = new JButton("R");
 		redButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				// If the button is clicked, we are making a modification to the image.
-				modified = true;
-				state.setText("MODIFIED");
-				undoHistory.push(bmp);
-				redoHistory = new Stack<Bitmap>();
-				undoButton.setEnabled(true);
-				redoButton.setEnabled(false);
-				// Create a deep copy of the old Bitmap so we preserve the old one in the stacks.
-				bmp = bmp.copy();
-				bmp.enhanceColor(Bitmap.RED);
-				// Reset the button text, enable all buttons we turned off, and refresh.
+				// Reset the button text and enable all buttons we turned off.
 				enhanceButton.setText("Enhance Color");	
 				colorChooserToggle();
-				refreshImage();
+				// Then make the modification to the image.
+				runOperation("Could not enhance the color of the image.", new Operation() {
+					public void apply(Bitmap target) {
+						target.enhanceColor(Bitmap.RED);
+					}
+				});
 			}
 		});
 		JButton greenButton = new JButton("G");
 		greenButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				// If the button is clicked, we are making a modification to the image.
-				modified = true;
-				state.setText("MODIFIED");
-				undoHistory.push(bmp);
-				redoHistory = new Stack<Bitmap>();
-				undoButton.setEnabled(true);
-				redoButton.setEnabled(false);
-				// Create a deep copy of the old Bitmap so we preserve the old one in the stacks.
-				bmp = bmp.copy();
-				bmp.enhanceColor(Bitmap.GREEN);
-				// Reset the button text, enable all buttons we turned off, and refresh.
+				// Reset the button text and enable all buttons we turned off.
 				enhanceButton.setText("Enhance Color");	
 				colorChooserToggle();
-				refreshImage();
+				// Then make the modification to the image.
+				runOperation("Could not enhance the color of the image.", new Operation() {
+					public void apply(Bitmap target) {
+						target.enhanceColor(Bitmap.GREEN);
+					}
+				});
 			}
 		});
 		JButton blueButton = new JButton("B");
 		blueButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				// If the button is clicked, we are making a modification to the image.
-				modified = true;
-				state.setText("MODIFIED");
-				undoHistory.push(bmp);
-				redoHistory = new Stack<Bitmap>();
-				undoButton.setEnabled(true);
-				redoButton.setEnabled(false);
-				// Create a deep copy of the old Bitmap so we preserve the old one in the stacks.
-				bmp = bmp.copy();
-				bmp.enhanceColor(Bitmap.BLUE);
-				// Reset the button text, enable all buttons we turned off, and refresh.
+				// Reset the button text and enable all buttons we turned off.
 				enhanceButton.setText("Enhance Color");	
 				colorChooserToggle();
-				refreshImage();
+				// Then make the modification to the image.
+				runOperation("Could not enhance the color of the image.", new Operation() {
+					public void apply(Bitmap target) {
+						target.enhanceColor(Bitmap.BLUE);
+					}
+				});
 			}
 		});
 		// Add the buttons.
@@ -277,8 +273,7 @@ public class BitmapGUI extends JFrame {
 				// Housekeeping...
 				modified = false;
 				state.setText("");
-				undoHistory = new Stack<Bitmap>();
-				redoHistory = new Stack<Bitmap>();
+				history.clear();
 				centerBox.setVisible(false);
 				toggleImageEnabled();
 				refreshImage();
@@ -374,17 +369,11 @@ public class BitmapGUI extends JFrame {
 		// For the flip button:
 		flipButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				// We've modified the image.
-				modified = true;
-				state.setText("MODIFIED");
-				undoHistory.push(bmp);
-				redoHistory = new Stack<Bitmap>();
-				undoButton.setEnabled(true);
-				redoButton.setEnabled(false);
-				// Create a deep copy of the old Bitmap so we preserve the old one in the stacks.
-				bmp = bmp.copy();
-				bmp.flip();
-				refreshImage();
+				runOperation("Could not flip the image.", new Operation() {
+					public void apply(Bitmap target) {
+						target.flip();
+					}
+				});
 			}
 		});
 		
@@ -393,17 +382,11 @@ public class BitmapGUI extends JFrame {
 		// For the blur button:
 		blurButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				// We've modified the image.
-				modified = true;
-				state.setText("MODIFIED");
-				undoHistory.push(bmp);
-				redoHistory = new Stack<Bitmap>();
-				undoButton.setEnabled(true);
-				redoButton.setEnabled(false);
-				// Create a deep copy of the old Bitmap so we preserve the old one in the stacks.
-				bmp = bmp.copy();
-				bmp.blur();
-				refreshImage();
+				runOperation("Could not blur the image.", new Operation() {
+					public void apply(Bitmap target) {
+						target.blur();
+					}
+				});
 			}
 		});
 		
@@ -492,37 +475,19 @@ public class BitmapGUI extends JFrame {
 				confirm.addActionListener(new ActionListener() {
 					public void actionPerformed(ActionEvent e1) {
 						
-						// Save the current Bitmap object, make a copy of it.
-						Bitmap oldBMP = bmp;
-						bmp = bmp.copy();
-						
 						// Now we create an array out of the ArrayList.
-						BufferedImage[] list = new BufferedImage[images.size()];
-						try {
-							// Pass the array in.
-							bmp.combine(images.toArray(list));
-						} catch (Exception e2) {
-							// If we enter here, the sizes didn't match.
-							JOptionPane.showMessageDialog(null, "One or more of the images selected did not match the dimensions of the initial image.", "ERROR", JOptionPane.ERROR_MESSAGE);
-							toggleImageEnabled();
-							imageChooser.dispose();
-							return;
-						}
-						
-						// We modified the image. 
-						modified = true;
-						state.setText("MODIFIED");
-						undoButton.setEnabled(true);
-						redoButton.setEnabled(false);
-						undoHistory.push(oldBMP);
-						redoHistory = new Stack<Bitmap>();
+						final BufferedImage[] list = images.toArray(new BufferedImage[images.size()]);
 						
 						// Close the window.
 						imageChooser.dispose();
-						
-						// Housekeeping...
 						toggleImageEnabled();
-						refreshImage();
+						
+						// Pass the array in. If the sizes don't match, the image is left as it was.
+						runOperation("One or more of the images selected did not match the dimensions of the initial image.", new Operation() {
+							public void apply(Bitmap target) throws Exception {
+								target.combine(list);
+							}
+						});
 					}
 				});
 				
@@ -556,13 +521,28 @@ public class BitmapGUI extends JFrame {
 		
 		//----------------------------------------------------------------------------------------------------
 		
+		// For the cancel button:
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				// Stop the running operation. The image stays as it was.
+				if (job != null)
+					job.cancel(true);
+			}
+		});
+		
+		//----------------------------------------------------------------------------------------------------
+		
 		// For the undo button:
 		undoButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				// Save the current Bitmap as a possible redo, and grab the last undo we stored.
-				redoHistory.push(bmp);
+				try {
+					bmp = history.undo(bmp);
+				} catch (IOException d) {
+					JOptionPane.showMessageDialog(null, "The previous image could not be recovered.", "ERROR", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
 				redoButton.setEnabled(true);
-				bmp = undoHistory.pop();
 				refreshImage();
 				
 				// If this new Bitmap is equal to the last saved one, it technically isn't "modified".
@@ -576,7 +556,7 @@ public class BitmapGUI extends JFrame {
 				}
 				
 				// If there are no more undos, prevent the user from doing so.
-				if (undoHistory.isEmpty()) 
+				if (!history.canUndo()) 
 					undoButton.setEnabled(false);
 			}
 		});
@@ -587,9 +567,13 @@ public class BitmapGUI extends JFrame {
 		redoButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				// Save the current Bitmap as a possible undo, and grab the last redo we stored.
-				undoHistory.push(bmp);
+				try {
+					bmp = history.redo(bmp);
+				} catch (IOException d) {
+					JOptionPane.showMessageDialog(null, "The next image could not be recovered.", "ERROR", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
 				undoButton.setEnabled(true);
-				bmp = redoHistory.pop();
 				refreshImage();
 				
 				// If this new Bitmap is equal to the last saved one, it technically isn't "modified".
@@ -603,7 +587,7 @@ public class BitmapGUI extends JFrame {
 				}
 				
 				// If there are no more redos, prevent the user from doing so.
-				if (redoHistory.isEmpty()) 
+				if (!history.canRedo()) 
 					redoButton.setEnabled(false);
 			}
 		});
@@ -684,6 +668,106 @@ public class BitmapGUI extends JFrame {
 	
 	//-----------------------------------------------------------------------------------------------------------------------------------------------------------------
 	
+	/**
+	 * An operation on the image, run in the background by {@link #runOperation(String, Operation)}.
+	 */
+	private interface Operation {
+		/**
+		 * Applies the operation.
+		 * @param target the copy of the image to modify.
+		 * @throws Exception if the operation could not be applied.
+		 */
+		void apply(Bitmap target) throws Exception;
+	}
+	
+	/**
+	 * A helper method which runs an operation on a copy of the image in the background, so that the window stays responsive.
+	 * The buttons are disabled until it finishes, at which point the copy replaces the image and the old one goes into the history.
+	 * @param failureMessage the message shown to the user if the operation fails.
+	 * @param operation the operation to run.
+	 */
+	private void runOperation(final String failureMessage, final Operation operation) {
+		// Create a copy of the old Bitmap so we preserve the old one in the history.
+		final Bitmap previous = bmp;
+		final Bitmap target = bmp.copy();
+		final AtomicBoolean finished = new AtomicBoolean();							// Whether the operation has stopped changing the copy.
+		setBusy(true);
+		
+		job = new SwingWorker<Bitmap, Void>() {
+			protected Bitmap doInBackground() throws Exception {
+				try {
+					operation.apply(target);
+				} finally {
+					// A cancelled copy is never used, so let go of its tiles, now that the operation has stopped changing them.
+					// If the cancel comes after this check, done sees that we've finished and lets go of them instead.
+					finished.set(true);
+					if (isCancelled())
+						target.release();
+				}
+				return target;
+			}
+			
+			// Back on the event dispatch thread once the operation has finished or been cancelled.
+			protected void done() {
+				job = null;
+				setBusy(false);
+				Bitmap result;
+				try {
+					result = get();
+				} catch (CancellationException | InterruptedException e) {
+					// The user changed their mind, so the image stays as it was. The copy is let go of here only once the
+					// operation has stopped, or else by the operation itself as it stops.
+					if (finished.get())
+						target.release();
+					return;
+				} catch (ExecutionException e) {
+					target.release();
+					JOptionPane.showMessageDialog(null, failureMessage, "ERROR", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				
+				// We've modified the image.
+				modified = true;
+				state.setText("MODIFIED");
+				previous.dropScratch();
+				history.push(previous);
+				undoButton.setEnabled(true);
+				redoButton.setEnabled(false);
+				bmp = result;
+				refreshImage();
+			}
+		};
+		job.execute();
+	}
+	
+	//-----------------------------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * A helper method which disables every control that could change the image while an operation runs, and shows the progress 
+	 * indicator. Once the operation is done, the controls are put back the way they were.
+	 * @param busy a flag indicating whether (<code>true</code>) or not (<code>false</code>) an operation is starting.
+	 */
+	private void setBusy(boolean busy) {
+		JComponent[] controls = { flipButton, blurButton, enhanceButton, combineButton, undoButton, redoButton, file };
+		if (busy)
+			enabledBeforeJob = new boolean[controls.length];
+		for (int i = 0; i < controls.length; i++) {
+			if (busy) {
+				enabledBeforeJob[i] = controls[i].isEnabled();
+				controls[i].setEnabled(false);
+			}
+			else
+				controls[i].setEnabled(enabledBeforeJob[i]);
+		}
+		progress.setVisible(busy);
+		cancelButton.setVisible(busy);
+		pack();
+		revalidate();
+		repaint();
+	}
+	
+	//-----------------------------------------------------------------------------------------------------------------------------------------------------------------
+	
 	/**
 	 * A helper method which toggles the availability of some image buttons.
 	 */
@@ -77,59 +77,6 @@ public class BitmapHacker {
 		}
 	}
 	
-	//------------------------------------------------------------------------
-	
-	/**
-	 * A helper class for all image manipulations.
-	 * @author School
-	 *
-	 */
-	private static class Pixel {
-		int red;
-		int green;
-		int blue;
-		
-		public Pixel(int blue, int green, int red) {
-			this.setRed(red);
-			this.setGreen(green);
-			this.setBlue(blue);
-		}
-		
-		public int getRed() {
-			return red;
-		}
-
-		public void setRed(int red) {
-			if (red < 0 || red > 255) 
-				System.err.println("You must enter a value from 0 to 255!");
-			else
-				this.red = red;
-		}
-
-		public int getGreen() {
-			return green;
-		}
-
-		public void setGreen(int green) {
-			if (green < 0 || green > 255) 
-				System.err.println("You must enter a value from 0 to 255!");
-			else
-				this.green = green;
-		}
-
-		public int getBlue() {
-			return blue;
-		}
-
-		public void setBlue(int blue) {
-			if (blue < 0 || blue > 255) 
-				System.err.println("You must enter a value from 0 to 255!");
-			else
-				this.blue = blue;
-		}
-		
-	}
-	
 	//----------------------------------------------------------------------------
 	
 	/**
@@ -137,42 +84,21 @@ public class BitmapHacker {
 	 * @param file the BMP image chosen by the user.
 	 */
 	private static void flip(File file) {
-		try {			
-			// Extracting the header information.
-			RandomAccessFile raf = new RandomAccessFile(file, "r");
-			byte[] header = new byte[54];
-			raf.seek(0L);
-			raf.read(header);
-			raf.close();
-			// Create the pixel grid.
-			Pixel[][] grid = createGridFromFile(file);
+		try {
+			// Open the image for streaming.
+			BitmapStream stream = new BitmapStream(file);
+			final int width = stream.getWidth();
 
 			// Creating a path to a newly generated file for output.
 			String path = file.getAbsolutePath();
 			File newFile = new File(path.substring(0, path.lastIndexOf('.')) + "Flipped.bmp");
-			raf = new RandomAccessFile(newFile, "rw");
 			
-			// Begin writing to the new image.
-			raf.seek(0L);
-			raf.write(header);
-			int width = grid.length;
-			int height = grid[0].length;
-			// Cycle through all pixels in our grid.
-			for (int y = height - 1; y >= 0; y--) {
-				for (int x = 0; x < width; x++) {
-					raf.write(grid[x][y].getBlue());
-					raf.write(grid[x][y].getGreen());
-					raf.write(grid[x][y].getRed());
+			// Each row is copied across as is, but written out in the opposite order.
+			stream.process(newFile, 0, true, new BitmapStream.RowOperation() {
+				public void apply(byte[][][] rows, byte[] out) {
+					System.arraycopy(rows[0][0], 0, out, 0, width * 3);
 				}
-				// Generate padding every row to match BMP specification.
-				if (((width * 3) % 4) != 0) {
-					for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-						raf.write(0);
-					}
-				}
-			}
-			// Close the stream to our file, flushing remaining data.
-			raf.close();
+			});
 		} catch (IOException e) {
 			System.out.println("There was an error while attempting to read your file.");
 		}
@@ -185,49 +111,35 @@ public class BitmapHacker {
 	 * @param file a BMP file the user chose.
 	 */
 	private static void enhance(File file) {
-		try {			
-			// Extracting the header information.
-			RandomAccessFile raf = new RandomAccessFile(file, "r");
-			byte[] header = new byte[54];
-			raf.seek(0L);
-			raf.read(header);
-			raf.close();
-			// Create the Pixel grid.
-			Pixel[][] grid = createGridFromFile(file);
-			
-			// Pick a colour!
-			int selection = JOptionPane.showOptionDialog(null, "Which colour would you like to enhance?", "Select color", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, new Object[] {"R", "G", "B"}, null);			
-			if (selection == JOptionPane.CLOSED_OPTION) {
-				JOptionPane.showMessageDialog(null, "Option not chosen. Operation aborted.", "ERROR", JOptionPane.ERROR_MESSAGE);
-				raf.close();
-				return;
-			}
+		// Pick a colour!
+		final int selection = JOptionPane.showOptionDialog(null, "Which colour would you like to enhance?", "Select color", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, new Object[] {"R", "G", "B"}, null);			
+		if (selection == JOptionPane.CLOSED_OPTION) {
+			JOptionPane.showMessageDialog(null, "Option not chosen. Operation aborted.", "ERROR", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		
+		try {
+			// Open the image for streaming.
+			BitmapStream stream = new BitmapStream(file);
+			final int width = stream.getWidth();
 
 			// Open a new file for writing.
 			String path = file.getAbsolutePath();
 			File newFile = new File(path.substring(0, path.lastIndexOf('.')) + "Enhanced.bmp");
-			raf = new RandomAccessFile(newFile, "rw");
 			
-			// Start writing.
-			raf.seek(0L);
-			raf.write(header);
-			int width = grid.length;
-			int height = grid[0].length;
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					// Enhance the value of the colour selected earlier. Currently adding 40.
-					raf.write((selection == 2) ? ((grid[x][y].getBlue() < 215) ? grid[x][y].getBlue() + 40 : 255) : grid[x][y].getBlue());
-					raf.write((selection == 1) ? ((grid[x][y].getGreen() < 215) ? grid[x][y].getGreen() + 40 : 255) : grid[x][y].getGreen());
-					raf.write((selection == 0) ? ((grid[x][y].getRed() < 215) ? grid[x][y].getRed() + 40 : 255) : grid[x][y].getRed());
-				}
-				// Generate padding to match BMP specification.
-				if (((width * 3) % 4) != 0) {
-					for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-						raf.write(0);
+			// Colours are stored as BGR, so the selected colour sits this far into each pixel.
+			final int offset = 2 - selection;
+			stream.process(newFile, 0, false, new BitmapStream.RowOperation() {
+				public void apply(byte[][][] rows, byte[] out) {
+					byte[] row = rows[0][0];
+					System.arraycopy(row, 0, out, 0, width * 3);
+					for (int i = offset; i < width * 3; i += 3) {
+						// Enhance the value of the colour selected earlier. Currently adding 40.
+						int value = row[i] & 0xFF;
+						out[i] = (byte) ((value < 215) ? value + 40 : 255);
 					}
 				}
-			}
-			raf.close();
+			});
 		} catch (IOException e) {
 			System.out.println("There was an error while attempting to read your file.");
 		}
@@ -236,112 +148,110 @@ public class BitmapHacker {
 	//-----------------------------------------------------------------------------------
 	
 	/**
-	 * Takes in a BMP file and averages a pixel's surrounding pixels' colour values to generate a blur effect.
+	 * Takes in a BMP file and asks the user how strongly to blur it.
 	 * @param file a BMP image file the user chose.
 	 */
 	private static void blur(File file) {
-		try {			
-			// Extracting the header information.
-			RandomAccessFile raf = new RandomAccessFile(file, "r");
-			byte[] header = new byte[54];
-			raf.seek(0L);
-			raf.read(header);
-			raf.close();
-			// Create the Pixel grid.
-			Pixel[][] grid = createGridFromFile(file);
+		// Ask for the radius. A radius of 1 averages each pixel with the pixels directly around it.
+		String input = JOptionPane.showInputDialog(null, "How many pixels around each pixel should be averaged?", "1");
+		if (input == null) {
+			JOptionPane.showMessageDialog(null, "Option not chosen. Operation aborted.", "ERROR", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		try {
+			int radius = Integer.parseInt(input.trim());
+			if (radius < 1)
+				throw new NumberFormatException();
+			blur(file, radius);
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, "That's not a valid radius. Operation aborted.", "ERROR", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
+	/**
+	 * Takes in a BMP file and averages a pixel's surrounding pixels' colour values to generate a blur effect.
+	 * Running totals are kept so that the cost per pixel is the same for any radius.
+	 * @param file a BMP image file the user chose.
+	 * @param radius the number of pixels either side of a pixel which are included in its average.
+	 */
+	private static void blur(File file, final int radius) {
+		try {
+			// Open the image for streaming.
+			BitmapStream stream = new BitmapStream(file);
+			final int width = stream.getWidth();
 
 			// Create a new file to write to.
 			String path = file.getAbsolutePath();
 			File newFile = new File(path.substring(0, path.lastIndexOf('.')) + "Blurred.bmp");
-			raf = new RandomAccessFile(newFile, "rw");
 			
-			// Start writing.
-			raf.seek(0L);
-			raf.write(header);
-			int width = grid.length;
-			int height = grid[0].length;
-			// Loop through all of the pixels.
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					// We need to keep track of the surrounding pixel values for our average.
-					int rTotal = 0;
-					int gTotal = 0;
-					int bTotal = 0;
-					int num = 0;
-					
-					// Now we add the values of the surrounding pixels, if they exist.
-					if (x > 0) {
-						if (y > 0) {
-							rTotal += grid[x - 1][y - 1].getRed();
-							gTotal += grid[x - 1][y - 1].getGreen();
-							bTotal += grid[x - 1][y - 1].getBlue();
-							num++;
-						}
-						rTotal += grid[x - 1][y].getRed();
-						gTotal += grid[x - 1][y].getGreen();
-						bTotal += grid[x - 1][y].getBlue();
-						num++;
-						if (y < height - 1) {
-							rTotal += grid[x - 1][y + 1].getRed();
-							gTotal += grid[x - 1][y + 1].getGreen();
-							bTotal += grid[x - 1][y + 1].getBlue();
-							num++;
+			// Each row needs every row within the radius of it.
+			stream.process(newFile, radius, false, new BitmapStream.RowOperation() {
+				// Running totals of each colour value in each column, over the rows in the window.
+				private int[] columns = new int[width * 3];
+				private boolean started = false;
+				
+				public void apply(byte[][][] rows, byte[] out) {
+					byte[][] window = rows[0];
+					// Bring the row entering the window into the totals, or every row if this is the first.
+					if (!started) {
+						for (byte[] row : window) {
+							addRow(row, 1);
 						}
+						started = true;
 					}
-					if (y > 0) {
-						rTotal += grid[x][y - 1].getRed();
-						gTotal += grid[x][y - 1].getGreen();
-						bTotal += grid[x][y - 1].getBlue();
-						num++;
+					else
+						addRow(window[window.length - 1], 1);
+					
+					// We only count the rows which exist.
+					int numRows = 0;
+					for (byte[] row : window) {
+						if (row != null)
+							numRows++;
 					}
-					rTotal += grid[x][y].getRed();
-					gTotal += grid[x][y].getGreen();
-					bTotal += grid[x][y].getBlue();
-					num++;
-					if (y < height - 1) {
-						rTotal += grid[x][y + 1].getRed();
-						gTotal += grid[x][y + 1].getGreen();
-						bTotal += grid[x][y + 1].getBlue();
-						num++;
+					
+					// Slide along the row, keeping a running total of the columns within the radius.
+					long bTotal = 0;
+					long gTotal = 0;
+					long rTotal = 0;
+					for (int x = 0; x <= radius && x < width; x++) {
+						bTotal += columns[x * 3];
+						gTotal += columns[x * 3 + 1];
+						rTotal += columns[x * 3 + 2];
 					}
-					if (x < width - 1) {
-						if (y > 0) {
-							rTotal += grid[x + 1][y - 1].getRed();
-							gTotal += grid[x + 1][y - 1].getGreen();
-							bTotal += grid[x + 1][y - 1].getBlue();
-							num++;
-						}
-						rTotal += grid[x + 1][y].getRed();
-						gTotal += grid[x + 1][y].getGreen();
-						bTotal += grid[x + 1][y].getBlue();
-						num++;
-						if (y < height - 1) {
-							rTotal += grid[x + 1][y + 1].getRed();
-							gTotal += grid[x + 1][y + 1].getGreen();
-							bTotal += grid[x + 1][y + 1].getBlue();
-							num++;
+					for (int x = 0; x < width; x++) {
+						if (x > 0) {
+							if (x + radius < width) {
+								bTotal += columns[(x + radius) * 3];
+								gTotal += columns[(x + radius) * 3 + 1];
+								rTotal += columns[(x + radius) * 3 + 2];
+							}
+							if (x - radius - 1 >= 0) {
+								bTotal -= columns[(x - radius - 1) * 3];
+								gTotal -= columns[(x - radius - 1) * 3 + 1];
+								rTotal -= columns[(x - radius - 1) * 3 + 2];
+							}
 						}
+						
+						// Take the average for each colour value, and write them in order.
+						int num = (Math.min(width - 1, x + radius) - Math.max(0, x - radius) + 1) * numRows;
+						out[x * 3] = (byte) (bTotal / num);
+						out[x * 3 + 1] = (byte) (gTotal / num);
+						out[x * 3 + 2] = (byte) (rTotal / num);
 					}
 					
-					// Take the average for each colour value.
-					int rAvg = rTotal / num;
-					int gAvg = gTotal / num;
-					int bAvg = bTotal / num;
-					
-					// Write the colour values in order.
-					raf.write(bAvg);
-					raf.write(gAvg);
-					raf.write(rAvg);
+					// The top row of the window drops out before the next row.
+					addRow(window[0], -1);
 				}
-				// Generate padding to match BMP specification.
-				if (((width * 3) % 4) != 0) {
-					for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-						raf.write(0);
+				
+				// Adds a row's colour values to the column totals, or takes them away.
+				private void addRow(byte[] row, int sign) {
+					if (row == null)
+						return;
+					for (int i = 0; i < width * 3; i++) {
+						columns[i] += sign * (row[i] & 0xFF);
 					}
 				}
-			}
-			// Close the file stream.
-			raf.close();
+			});
 		} catch (IOException e) {
 			System.out.println("There was an error while attempting to read your file.");
 		}
@@ -355,19 +265,14 @@ public class BitmapHacker {
 	 * @param file2 another file picked by the user, same size.
 	 */
 	private static void combine(File file1, File file2) {
-		try {			
-			// Extracting the header information.
-			RandomAccessFile raf = new RandomAccessFile(file1, "r");
-			byte[] header = new byte[54];
-			raf.seek(0L);
-			raf.read(header);
-			raf.close();
-			// Create the Pixel grids.
-			Pixel[][] grid1 = createGridFromFile(file1);
-			Pixel[][] grid2 = createGridFromFile(file2);
+		try {
+			// Open both images for streaming side by side.
+			BitmapStream stream = new BitmapStream(file1, file2);
+			final int width = stream.getWidth();
 			
 			// If the dimensions don't match, we can't use this method. Complain if that's the case.
-			if ((grid1.length != grid2.length) || (grid1[0].length != grid2[0].length)) {
+			if (!stream.hasSameDimensions()) {
+				stream.close();
 				JOptionPane.showMessageDialog(null, "Images are not the same width. Please choose compatible images.", "ERROR", JOptionPane.ERROR_MESSAGE);
 				return;
 			}
@@ -376,79 +281,19 @@ public class BitmapHacker {
 			String path1 = file1.getAbsolutePath();
 			String path2 = file2.getAbsolutePath();
 			File newFile = new File(path1.substring(0, path1.lastIndexOf('.')) + path2.substring(path2.lastIndexOf('\\') + 1, path2.lastIndexOf('.') + 1) + "Merger.bmp");
-			raf = new RandomAccessFile(newFile, "rw");
 
-			// Start writing.
-			raf.seek(0L);
-			raf.write(header);
-			int width = grid1.length;
-			int height = grid1[0].length;
-			// Loop through every pixel.
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
+			stream.process(newFile, 0, false, new BitmapStream.RowOperation() {
+				public void apply(byte[][][] rows, byte[] out) {
 					// Take the average of each colour value for every pixel we find and write that value.
-					raf.write((grid1[x][y].getBlue() + grid2[x][y].getBlue()) / 2);
-					raf.write((grid1[x][y].getGreen() + grid2[x][y].getGreen()) / 2);
-					raf.write((grid1[x][y].getRed() + grid2[x][y].getRed()) / 2);
-				}
-				// Generate padding to match BMP specification.
-				if (((width * 3) % 4) != 0) {
-					for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-						raf.write(0);
+					byte[] row1 = rows[0][0];
+					byte[] row2 = rows[1][0];
+					for (int i = 0; i < width * 3; i++) {
+						out[i] = (byte) (((row1[i] & 0xFF) + (row2[i] & 0xFF)) / 2);
 					}
 				}
-			}
-			// Close the file stream.
-			raf.close();
+			});
 		} catch (IOException e) {
 			System.err.println("There was an error while attempting to read your file.");
 		}
 	}
-	
-	//-----------------------------------------------------------------------------------
-	
-	/**
-	 * A helper function to facilitate the organization of a bitmap file into a 2-D grid of pixels.
-	 * @param file a File object linking to the input file.
-	 * @return a 2-D array of Pixel objects.
-	 */
-	private static Pixel[][] createGridFromFile(File file) {
-		Pixel[][] grid = null;
-		try {
-			// Accessing the file in question.
-			RandomAccessFile raf = new RandomAccessFile(file, "r");
-			raf.seek(18L);
-			// Finding the width.
-			int width = 0;
-			for (int i = 0; i < 4; i++) {
-				width += raf.read() * Math.pow(256, i);
-			}
-			// Finding the height.
-			int height = 0;
-			for (int i = 0; i < 4; i++) {
-				height += raf.read() * Math.pow(256, i);
-			}
-			
-			raf.seek(54L);
-			// Creating the pixel grid.
-			grid = new Pixel[width][height];
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					grid[x][y] = new Pixel(raf.read(), raf.read(), raf.read());
-				}
-				if (((width * 3) % 4) != 0) {
-					for (int i = 0; i < (4 - (width * 3) % 4); i++) {
-						raf.read();
-					}
-				}
-				
-			}
-			raf.close();
-		} catch (FileNotFoundException e) {
-			System.err.println("File not found");
-		} catch (IOException e) {
-			System.out.println("There was an error while attempting to read your file.");
-		}
-		return grid;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Records a chain of operations on a Bitmap object and applies them all at once. Flips, colour enhancements and
+ * combinations are fused into a single pass over the image. Only blurs, which need the finished neighbours of each pixel,
+ * split the chain into separate passes.
+ * @author Eric Leblanc
+ * @version 1.0, 19/02/2015.
+ * @since 1.8
+ */
+public class BitmapPipeline {
+	private Bitmap bmp;																	// The Bitmap object the operations are applied to.
+	private ArrayList<Step> steps = new ArrayList<Step>();								// The operations recorded so far, in order.
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates an empty pipeline for a Bitmap object. Use {@link Bitmap#pipeline()} instead.
+	 * @param bmp the Bitmap object the operations will be applied to.
+	 */
+	BitmapPipeline(Bitmap bmp) {
+		this.bmp = bmp;
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Records a vertical flip of the image.
+	 * @return this pipeline.
+	 */
+	public BitmapPipeline flip() {
+		// Two flips in a row cancel out.
+		if (!steps.isEmpty() && steps.get(steps.size() - 1).flip)
+			steps.remove(steps.size() - 1);
+		else
+			steps.add(Step.FLIP);
+		return this;
+	}
+
+	/**
+	 * Records a blur with the standard radius of 1.
+	 * @return this pipeline.
+	 */
+	public BitmapPipeline blur() {
+		return blur(1);
+	}
+
+	/**
+	 * Records a blur of the given radius. See {@link Bitmap#blur(int)}.
+	 * @param radius the number of pixels either side of a pixel which are included in its average.
+	 * @return this pipeline.
+	 */
+	public BitmapPipeline blur(int radius) {
+		if (radius >= 1)
+			steps.add(new Step(radius));
+		return this;
+	}
+
+	/**
+	 * Records an approximate Gaussian blur. See {@link Bitmap#gaussianBlur(double)}.
+	 * @param sigma the standard deviation, in pixels, of the Gaussian being approximated.
+	 * @return this pipeline.
+	 */
+	public BitmapPipeline gaussianBlur(double sigma) {
+		for (int radius : Bitmap.gaussianBoxRadii(sigma, Bitmap.GAUSSIAN_PASSES)) {
+			blur(radius);
+		}
+		return this;
+	}
+
+	/**
+	 * Records a colour enhancement. See {@link Bitmap#enhanceColor(int)}.
+	 * @param selection an int defining which colour to enhance.
+	 * @return this pipeline.
+	 */
+	public BitmapPipeline enhanceColor(int selection) {
+		int[][] table = Bitmap.enhanceTable(selection);
+		// Back to back colour changes fold into a single lookup table.
+		Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+		if (last != null && last.table != null) {
+			for (int c = 0; c < 3; c++) {
+				for (int v = 0; v < 256; v++) {
+					last.table[c][v] = table[c][last.table[c][v]];
+				}
+			}
+		}
+		else
+			steps.add(new Step(table));
+		return this;
+	}
+
+	/**
+	 * Records a combination with other images. See {@link Bitmap#combine(BufferedImage[])}.
+	 * @param images an array of BufferedImage objects, with equal dimensions, to combine into the image.
+	 * @return this pipeline.
+	 * @throws Exception a generic exception in the event the image dimensions don't all match up.
+	 */
+	public BitmapPipeline combine(BufferedImage[] images) throws Exception {
+		for (BufferedImage image : images) {
+			if (image.getWidth() != bmp.getWidth() || image.getHeight() != bmp.getHeight())
+				throw new Exception();
+		}
+		steps.add(new Step(images.clone()));
+		return this;
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Applies every recorded operation to the Bitmap object, then clears the pipeline.
+	 * @return the Bitmap object, now holding the result.
+	 */
+	public Bitmap apply() {
+		int first = 0;
+		for (int i = 0; i <= steps.size(); i++) {
+			if (i < steps.size() && steps.get(i).radius == 0)
+				continue;
+			// Everything up to the blur goes in one pass, and then the blur goes in its own.
+			if (i > first)
+				bmp.transformRows(new FusedRows(steps.subList(first, i).toArray(new Step[i - first])));
+			if (i < steps.size())
+				bmp.blur(steps.get(i).radius);
+			first = i + 1;
+		}
+		steps.clear();
+		return bmp;
+	}
+
+	/**
+	 * Applies every recorded operation to the Bitmap object, then writes the result to a bitmap file.
+	 * @param file a File object pointing to the requested destination file.
+	 * @throws IOException if the file could not be written to the location specified.
+	 */
+	public void writeBitmap(File file) throws IOException {
+		apply().writeBitmap(file);
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * A single recorded operation.
+	 */
+	private static class Step {
+		static final Step FLIP = new Step();				// The one and only flip step.
+
+		boolean flip;										// A flag for whether this step is a flip.
+		int radius;											// The radius, if this step is a blur.
+		int[][] table;										// The red, green and blue lookup tables, if this step changes colours.
+		BufferedImage[] images;								// The images to average with, if this step is a combination.
+
+		private Step() {
+			flip = true;
+		}
+
+		Step(int radius) {
+			this.radius = radius;
+		}
+
+		Step(int[][] table) {
+			this.table = table;
+		}
+
+		Step(BufferedImage[] images) {
+			this.images = images;
+		}
+	}
+
+	/**
+	 * Runs a chain of flips, colour changes and combinations as a single pass. Each output row is traced back through
+	 * the flips to the row it comes from, and then has the per-pixel steps applied to it in order.
+	 */
+	private class FusedRows implements Bitmap.RowTransform {
+		private Step[] steps;								// The steps being fused.
+
+		/**
+		 * Prepares a chain of steps for fusing.
+		 * @param steps the steps, none of which may be a blur.
+		 */
+		FusedRows(Step[] steps) {
+			this.steps = steps;
+		}
+
+		public int sourceRow(int y) {
+			for (Step step : steps) {
+				if (step.flip)
+					y = bmp.getHeight() - 1 - y;
+			}
+			return y;
+		}
+
+		public int bufferSize() {
+			for (Step step : steps) {
+				if (step.images != null)
+					return Bitmap.COMBINE_BUFFER_ROWS * bmp.getWidth();
+			}
+			return 0;
+		}
+
+		public void apply(int[] row, int offset, int y, int[] buffer) {
+			int width = bmp.getWidth();
+			int height = bmp.getHeight();
+
+			// Start from the row of the original, and keep track of where it has moved to before each step.
+			int source = sourceRow(y);
+			for (Step step : steps) {
+				if (step.flip) {
+					source = height - 1 - source;
+					continue;
+				}
+				if (step.table != null) {
+					int[] red = step.table[0];
+					int[] green = step.table[1];
+					int[] blue = step.table[2];
+					for (int i = offset; i < offset + width; i++) {
+						int rgb = row[i];
+						row[i] = (red[(rgb >> 16) & 0xFF] << 16) | (green[(rgb >> 8) & 0xFF] << 8) | blue[rgb & 0xFF];
+					}
+				}
+				else
+					Bitmap.combineRow(row, offset, width, step.images, source, buffer);
+			}
+		}
+	}
+}
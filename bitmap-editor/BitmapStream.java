@@ -0,0 +1,312 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams the rows of one or more bitmap files through an operation and into a new bitmap file, without ever holding
+ * a whole image in memory. Rows are read on one thread per input, handed through a bounded ring of row buffers to the
+ * calling thread for processing, and written out on another thread as soon as each one is ready.
+ * @author Eric Leblanc
+ * @version 1.0, 02/02/15
+ */
+class BitmapStream {
+	private static final int HEADER_SIZE = 54;				// The size, in bytes, of the header assumed for all bitmaps streamed.
+	private static final int READ_AHEAD = 4;				// The number of rows each reader may get ahead of the rows being processed.
+	private static final int WRITE_BEHIND = 4;				// The number of processed rows which may wait to be written out.
+	private static final byte[] END = new byte[0];			// A marker passed along a queue in place of a row to say that no more are coming.
+
+	/**
+	 * An operation applied to the image one output row at a time.
+	 */
+	interface RowOperation {
+		/**
+		 * Produces one row of output from the rows around it.
+		 * @param rows the input rows, indexed by input and then by offset in the window, from <code>-radius</code> to
+		 * <code>+radius</code>. Rows which fall outside the image are <code>null</code>.
+		 * @param out the row to fill with BGR output. Its padding is left alone.
+		 */
+		void apply(byte[][][] rows, byte[] out);
+	}
+
+	private FileChannel[] inputs;							// The open channels of the files being read.
+	private byte[] header = new byte[HEADER_SIZE];			// The header of the first input, which is copied to the output.
+	private int width;										// The width, in pixels, of the first input.
+	private int height;										// The height, in pixels, of the first input.
+	private int rowSize;									// The size, in bytes, of a row including its padding.
+	private boolean sameDimensions = true;					// A flag for whether every input shares the first input's dimensions.
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Opens the given bitmap files and reads their headers.
+	 * @param files the files to stream. The first decides the header and dimensions of the output.
+	 * @throws IOException if any of the files could not be read.
+	 */
+	BitmapStream(File... files) throws IOException {
+		inputs = new FileChannel[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				inputs[i] = FileChannel.open(files[i].toPath(), StandardOpenOption.READ);
+				ByteBuffer head = ByteBuffer.wrap((i == 0) ? header : new byte[HEADER_SIZE]).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(inputs[i], head, 0L);
+				if (i == 0) {
+					width = head.getInt(18);
+					height = head.getInt(22);
+				}
+				else if (head.getInt(18) != width || head.getInt(22) != height)
+					sameDimensions = false;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		rowSize = width * 3 + (4 - (width * 3) % 4) % 4;
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs every row of the inputs through an operation and writes the results to a new bitmap file, then closes the inputs.
+	 * @param file the file to write the result to.
+	 * @param radius the number of rows either side of the current one which the operation needs to see.
+	 * @param reverse a flag for whether the rows should be written in the opposite order to which they are read.
+	 * @param op the operation producing each output row.
+	 * @throws IOException if reading or writing failed part way through.
+	 */
+	void process(File file, int radius, boolean reverse, RowOperation op) throws IOException {
+		// Start up a reader for each input, and the writer.
+		RowReader[] readers = new RowReader[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			readers[i] = new RowReader(inputs[i], 2 * radius + 1 + READ_AHEAD);
+		}
+		RowWriter writer = new RowWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE), reverse);
+		try {
+			for (RowReader reader : readers) {
+				reader.start();
+			}
+			writer.start();
+
+			// Fill the lower half of each window. Everything before the first row is outside the image.
+			byte[][][] rows = new byte[inputs.length][2 * radius + 1][];
+			for (int i = 0; i < inputs.length; i++) {
+				for (int j = radius; j < rows[i].length; j++) {
+					rows[i][j] = (j - radius < height) ? readers[i].next() : null;
+				}
+			}
+
+			for (int y = 0; y < height; y++) {
+				byte[] out = writer.nextFree();
+				op.apply(rows, out);
+				writer.queue.put(out);
+
+				// Slide each window down a row, giving the row which drops out back to its reader.
+				for (int i = 0; i < inputs.length; i++) {
+					if (rows[i][0] != null)
+						readers[i].free.put(rows[i][0]);
+					System.arraycopy(rows[i], 1, rows[i], 0, rows[i].length - 1);
+					rows[i][rows[i].length - 1] = (y + radius + 1 < height) ? readers[i].next() : null;
+				}
+			}
+
+			// Let the writer drain, and pass on anything that went wrong.
+			writer.queue.put(END);
+			writer.join();
+			if (writer.failure != null)
+				throw writer.failure;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			for (RowReader reader : readers) {
+				reader.interrupt();
+			}
+			writer.interrupt();
+			writer.channel.close();
+			close();
+		}
+	}
+
+	/**
+	 * Closes all of the inputs.
+	 * @throws IOException if an input could not be closed.
+	 */
+	void close() throws IOException {
+		for (FileChannel input : inputs) {
+			if (input != null)
+				input.close();
+		}
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * A getter method for the width of the image.
+	 * @return the width, in pixels, of the first input.
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * A getter method for the height of the image.
+	 * @return the height, in pixels, of the first input.
+	 */
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Tells whether the inputs can be streamed side by side.
+	 * @return <code>true</code> if every input has the same width and height as the first.
+	 */
+	boolean hasSameDimensions() {
+		return sameDimensions;
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * A thread which reads the rows of an input, in file order, into buffers from its ring.
+	 */
+	private class RowReader extends Thread {
+		private FileChannel channel;						// The input being read.
+		private BlockingQueue<byte[]> free;					// Buffers handed back by the processing thread, ready to be filled.
+		private BlockingQueue<byte[]> queue;				// Rows which have been read and are waiting to be processed.
+		private volatile IOException failure;				// Whatever went wrong while reading, if anything.
+
+		/**
+		 * Creates a reader with its own ring of row buffers.
+		 * @param channel the input to read.
+		 * @param ringSize the number of row buffers in the ring.
+		 */
+		RowReader(FileChannel channel, int ringSize) {
+			this.channel = channel;
+			this.setDaemon(true);
+			free = new ArrayBlockingQueue<byte[]>(ringSize);
+			queue = new ArrayBlockingQueue<byte[]>(ringSize + 1);
+			for (int i = 0; i < ringSize; i++) {
+				free.add(new byte[rowSize]);
+			}
+		}
+
+		public void run() {
+			try {
+				for (int y = 0; y < height; y++) {
+					byte[] row = free.take();
+					readFully(channel, ByteBuffer.wrap(row), HEADER_SIZE + (long) y * rowSize);
+					queue.put(row);
+				}
+			} catch (IOException e) {
+				failure = e;
+				queue.offer(END);
+			} catch (InterruptedException e) {
+				// We were told to stop.
+			}
+		}
+
+		/**
+		 * Waits for the next row to be read.
+		 * @return the next row of the input.
+		 * @throws IOException if the input could not be read.
+		 * @throws InterruptedException if we were interrupted while waiting.
+		 */
+		byte[] next() throws IOException, InterruptedException {
+			byte[] row = queue.take();
+			if (row == END)
+				throw failure;
+			return row;
+		}
+	}
+
+	/**
+	 * A thread which writes processed rows out to the output as they arrive.
+	 */
+	private class RowWriter extends Thread {
+		private FileChannel channel;						// The output being written.
+		private boolean reverse;							// A flag for whether rows are written from the end of the file back.
+		private BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(WRITE_BEHIND + 1);	// Buffers ready to be filled by the processing thread.
+		private BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(WRITE_BEHIND + 1);	// Processed rows waiting to be written.
+		private volatile IOException failure;				// Whatever went wrong while writing, if anything.
+
+		/**
+		 * Creates a writer with its own ring of row buffers.
+		 * @param channel the output to write.
+		 * @param reverse a flag for whether rows are written from the end of the file back.
+		 */
+		RowWriter(FileChannel channel, boolean reverse) {
+			this.channel = channel;
+			this.reverse = reverse;
+			this.setDaemon(true);
+			for (int i = 0; i < WRITE_BEHIND; i++) {
+				free.add(new byte[rowSize]);
+			}
+		}
+
+		public void run() {
+			try {
+				// The header goes first.
+				writeFully(channel, ByteBuffer.wrap(header), 0L);
+				for (int y = 0; ; y++) {
+					byte[] row = queue.take();
+					if (row == END)
+						break;
+					writeFully(channel, ByteBuffer.wrap(row), HEADER_SIZE + (long) (reverse ? height - 1 - y : y) * rowSize);
+					free.put(row);
+				}
+				// Drop anything left over from a larger file that used to be here.
+				channel.truncate(HEADER_SIZE + (long) height * rowSize);
+			} catch (IOException e) {
+				// Pass the failure on in place of a buffer, so that the processing thread stops rather than waiting for us.
+				failure = e;
+				free.offer(END);
+			} catch (InterruptedException e) {
+				// We were told to stop.
+			}
+		}
+
+		/**
+		 * Waits for a buffer to fill with the next processed row.
+		 * @return an empty row buffer.
+		 * @throws IOException if the output could not be written.
+		 * @throws InterruptedException if we were interrupted while waiting.
+		 */
+		byte[] nextFree() throws IOException, InterruptedException {
+			byte[] row = free.take();
+			if (row == END)
+				throw failure;
+			return row;
+		}
+	}
+
+	//-------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads from a channel at the given position until the buffer is full.
+	 * @param channel the channel to read from.
+	 * @param dst the buffer to fill.
+	 * @param position the position in the file to start reading from.
+	 * @throws IOException if the channel runs out before the buffer is full.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int read = channel.read(dst, position);
+			if (read < 0)
+				throw new EOFException();
+			position += read;
+		}
+	}
+
+	/**
+	 * Writes the whole of a buffer out to a channel at the given position.
+	 * @param channel the channel to write to.
+	 * @param src the buffer to drain.
+	 * @param position the position in the file to start writing at.
+	 * @throws IOException if the channel could not be written to.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+	}
+}
@@ -0,0 +1,467 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Keeps the undo and redo history of a Bitmap object within a memory budget. The most recent states on either side are kept
+ * as they are. Older ones are compressed, in the background, as the XOR difference from the state next to them, and spilled
+ * to a temporary file once the budget runs out. Undo and redo bring them back transparently, decoding the next state in the
+ * background ahead of time.
+ * @author Eric Leblanc
+ * @version 1.0, 19/02/2015.
+ * @since 1.8
+ */
+class EditHistory {
+	private static final int LIVE_ENTRIES = 2;											// The number of states nearest the current one on each side which are never compressed.
+
+	private long budget;																// The number of bytes the history may take up in memory.
+	private long used;																	// The number of bytes the history currently takes up in memory.
+	private ArrayList<Entry> undoHistory = new ArrayList<Entry>();						// The undo states, oldest first.
+	private ArrayList<Entry> redoHistory = new ArrayList<Entry>();						// The redo states, furthest first.
+	private ExecutorService background;													// The thread compressing and prefetching states.
+	private File spillFile;																// The temporary file spilled states are written to, once created.
+	private RandomAccessFile spill;														// The open spill file.
+	private TreeMap<Long, Long> freeSpace = new TreeMap<Long, Long>();					// The length of each free extent of the spill file, by where it starts.
+
+	//-----------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates an empty history with a quarter of the maximum heap as its budget.
+	 */
+	EditHistory() {
+		this(Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Creates an empty history.
+	 * @param budget the number of bytes the history may take up in memory before states are spilled to disk.
+	 */
+	EditHistory(long budget) {
+		this.budget = budget;
+		background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "EditHistory");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	//-----------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Records an edit. The state before the edit becomes the next undo, and any redos are thrown away.
+	 * @param previous the state before the edit.
+	 */
+	synchronized void push(Bitmap previous) {
+		for (Entry entry : redoHistory) {
+			drop(entry);
+		}
+		redoHistory.clear();
+		add(undoHistory, previous);
+	}
+
+	/**
+	 * Steps back to the last state recorded.
+	 * @param current the current state, which becomes the next redo.
+	 * @return the state to go back to.
+	 * @throws IOException if a spilled state could not be read back.
+	 */
+	Bitmap undo(Bitmap current) throws IOException {
+		return step(undoHistory, redoHistory, current);
+	}
+
+	/**
+	 * Steps forward to the last state undone.
+	 * @param current the current state, which becomes the next undo.
+	 * @return the state to go forward to.
+	 * @throws IOException if a spilled state could not be read back.
+	 */
+	Bitmap redo(Bitmap current) throws IOException {
+		return step(redoHistory, undoHistory, current);
+	}
+
+	/**
+	 * Tells whether there is anything to undo.
+	 * @return <code>true</code> if undo has a state to go back to.
+	 */
+	synchronized boolean canUndo() {
+		return !undoHistory.isEmpty();
+	}
+
+	/**
+	 * Tells whether there is anything to redo.
+	 * @return <code>true</code> if redo has a state to go forward to.
+	 */
+	synchronized boolean canRedo() {
+		return !redoHistory.isEmpty();
+	}
+
+	/**
+	 * Forgets the whole history, for when a different image is opened.
+	 */
+	synchronized void clear() {
+		for (Entry entry : undoHistory) {
+			drop(entry);
+		}
+		for (Entry entry : redoHistory) {
+			drop(entry);
+		}
+		undoHistory.clear();
+		redoHistory.clear();
+		used = 0;
+		freeSpace.clear();
+		try {
+			if (spill != null)
+				spill.setLength(0);
+		} catch (IOException e) { /* The space will simply be reused later. */ }
+	}
+
+	//-----------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * A single state in the history. Each state is held in one of three forms: as it is, compressed in memory, or spilled.
+	 * A compressed or spilled state is the difference from its neighbour nearer the current state, or from the current
+	 * state itself if it is next in line. That neighbour never changes while the state stays in the history.
+	 */
+	private static class Entry {
+		Bitmap bitmap;																	// The state as it is, if held that way.
+		byte[] packed;																	// The compressed difference, if held in memory.
+		long offset = -1;																// Where the compressed difference starts in the spill file, if spilled.
+		int length;																		// The length of the compressed difference, if spilled.
+		boolean removed;																// A flag for whether the state has left the history.
+		boolean dropped;																// A flag for whether the state was thrown away rather than handed back.
+		Future<Bitmap> prefetch;														// The state being decoded ahead of time, if any.
+		Bitmap prefetched;																// The state decoded ahead of time, once it is ready.
+
+		Entry(Bitmap bitmap) {
+			this.bitmap = bitmap;
+		}
+	}
+
+	/**
+	 * Moves a state from the top of one stack to the current state, pushing the current state onto the other.
+	 * @param from the stack to take the state from.
+	 * @param to the stack to put the current state on.
+	 * @param current the current state.
+	 * @return the state taken from the stack.
+	 * @throws IOException if a spilled state could not be read back.
+	 */
+	private Bitmap step(ArrayList<Entry> from, ArrayList<Entry> to, Bitmap current) throws IOException {
+		// The state only leaves the stack once it is back, so that if it can't be read, every difference still has its neighbour.
+		Entry entry;
+		synchronized (this) {
+			entry = from.get(from.size() - 1);
+		}
+		Bitmap result = restore(entry, current);
+		synchronized (this) {
+			from.remove(from.size() - 1);
+			discard(entry);
+			add(to, current);
+
+			// Whatever is next in line is likely to be asked for soon, so get it ready now.
+			if (!from.isEmpty())
+				prefetch(from.get(from.size() - 1), result);
+		}
+		return result;
+	}
+
+	/**
+	 * Pushes a state onto a stack, compressing whatever falls out of the uncompressed window.
+	 * @param stack the stack to push onto.
+	 * @param bitmap the state to push.
+	 */
+	private void add(ArrayList<Entry> stack, Bitmap bitmap) {
+		Entry entry = new Entry(bitmap);
+		stack.add(entry);
+		used += sizeOf(bitmap);
+		int index = stack.size() - 1 - LIVE_ENTRIES;
+		if (index >= 0 && stack.get(index).bitmap != null)
+			compress(stack.get(index), stack.get(index + 1).bitmap);
+	}
+
+	/**
+	 * Takes a state out of the history's accounts.
+	 * @param entry the state leaving the history.
+	 */
+	private void discard(Entry entry) {
+		entry.removed = true;
+		if (entry.bitmap != null)
+			used -= sizeOf(entry.bitmap);
+		if (entry.packed != null)
+			used -= entry.packed.length;
+		if (entry.prefetched != null)
+			used -= sizeOf(entry.prefetched);
+		if (entry.prefetch != null)
+			entry.prefetch.cancel(false);
+		if (entry.offset >= 0) {
+			freeExtent(entry.offset, entry.length);
+			entry.offset = -1;
+		}
+	}
+
+	/**
+	 * Throws a state away for good, letting go of the tiles it holds so that the current state can change them in place.
+	 * @param entry the state leaving the history.
+	 */
+	private void drop(Entry entry) {
+		discard(entry);
+		entry.dropped = true;
+		if (entry.bitmap != null)
+			entry.bitmap.release();
+		if (entry.prefetched != null)
+			entry.prefetched.release();
+	}
+
+	/**
+	 * Gets a state back in full.
+	 * @param entry the state wanted.
+	 * @param neighbour the state next to it, nearer the current one.
+	 * @return the state as a Bitmap object.
+	 * @throws IOException if a spilled state could not be read back.
+	 */
+	private Bitmap restore(Entry entry, Bitmap neighbour) throws IOException {
+		Future<Bitmap> prefetch;
+		byte[] packed = null;
+		synchronized (this) {
+			if (entry.bitmap != null)
+				return entry.bitmap;
+			prefetch = entry.prefetch;
+			if (prefetch == null)
+				packed = readPacked(entry);
+		}
+		// The wait happens outside the lock, since the background thread may need it to get through its queue.
+		if (prefetch != null) {
+			try {
+				return prefetch.get();
+			} catch (CancellationException | InterruptedException | ExecutionException e) {
+				// Fall back to decoding it here.
+				synchronized (this) {
+					packed = readPacked(entry);
+				}
+			}
+		}
+		return decode(packed, neighbour);
+	}
+
+	/**
+	 * Compresses a state in the background, once it is far enough from the current state.
+	 * @param entry the state to compress.
+	 * @param neighbour the state next to it, nearer the current one.
+	 */
+	private void compress(final Entry entry, final Bitmap neighbour) {
+		final Bitmap bitmap = entry.bitmap;
+		background.execute(new Runnable() {
+			public void run() {
+				byte[] packed = encode(bitmap, neighbour);
+				synchronized (EditHistory.this) {
+					if (entry.removed || entry.bitmap != bitmap)
+						return;
+					entry.bitmap = null;
+					entry.packed = packed;
+					bitmap.release();
+					used += packed.length - sizeOf(bitmap);
+					enforceBudget();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decodes a compressed state in the background, so that it is ready when asked for.
+	 * @param entry the state to decode.
+	 * @param neighbour the state next to it, which is now the current state.
+	 */
+	private void prefetch(final Entry entry, final Bitmap neighbour) {
+		if (entry.bitmap != null || entry.prefetch != null)
+			return;
+		entry.prefetch = background.submit(new Callable<Bitmap>() {
+			public Bitmap call() throws IOException {
+				byte[] packed;
+				synchronized (EditHistory.this) {
+					// A state thrown away before we got to it has nothing left to read.
+					if (entry.removed)
+						return null;
+					packed = readPacked(entry);
+				}
+				Bitmap result = decode(packed, neighbour);
+				synchronized (EditHistory.this) {
+					// A state thrown away while it was being decoded is never handed out. Otherwise, the decoded copy
+					// counts against the budget until it leaves the history.
+					if (entry.dropped) {
+						result.release();
+					} else {
+						entry.prefetched = result;
+						used += sizeOf(result);
+						enforceBudget();
+					}
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Spills compressed states to disk, oldest first, until the history fits in its budget.
+	 */
+	private void enforceBudget() {
+		for (ArrayList<Entry> stack : Arrays.asList(undoHistory, redoHistory)) {
+			for (int i = 0; i < stack.size() && used > budget; i++) {
+				Entry entry = stack.get(i);
+				if (entry.packed == null)
+					continue;
+				try {
+					if (spill == null) {
+						spillFile = File.createTempFile("bitmap-history", ".tmp");
+						spillFile.deleteOnExit();
+						spill = new RandomAccessFile(spillFile, "rw");
+					}
+					entry.length = entry.packed.length;
+					entry.offset = allocateExtent(entry.length);
+					spill.seek(entry.offset);
+					spill.write(entry.packed);
+					used -= entry.packed.length;
+					entry.packed = null;
+				} catch (IOException e) {
+					// If we can't spill, the state just stays in memory.
+					if (entry.offset >= 0)
+						freeExtent(entry.offset, entry.length);
+					entry.offset = -1;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds room in the spill file, reusing the first free extent large enough before growing the file.
+	 * @param length the number of bytes wanted.
+	 * @return where the room starts in the spill file.
+	 * @throws IOException if the length of the spill file could not be read.
+	 */
+	private long allocateExtent(int length) throws IOException {
+		for (Map.Entry<Long, Long> extent : freeSpace.entrySet()) {
+			long offset = extent.getKey();
+			long room = extent.getValue();
+			if (room < length)
+				continue;
+			freeSpace.remove(offset);
+			if (room > length)
+				freeSpace.put(offset + length, room - length);
+			return offset;
+		}
+		return spill.length();
+	}
+
+	/**
+	 * Gives room in the spill file back, merging it with the free extents either side. Room at the end of the file is
+	 * cut off instead, so that the file shrinks as the history does.
+	 * @param offset where the room starts in the spill file.
+	 * @param length the number of bytes of room.
+	 */
+	private void freeExtent(long offset, long length) {
+		Map.Entry<Long, Long> before = freeSpace.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			freeSpace.remove(before.getKey());
+			offset = before.getKey();
+			length += before.getValue();
+		}
+		Long after = freeSpace.get(offset + length);
+		if (after != null) {
+			freeSpace.remove(offset + length);
+			length += after;
+		}
+		try {
+			if (offset + length >= spill.length()) {
+				spill.setLength(offset);
+				return;
+			}
+		} catch (IOException e) { /* The room is simply kept free instead. */ }
+		freeSpace.put(offset, length);
+	}
+
+	/**
+	 * Gets the compressed difference of a state, from memory or from the spill file.
+	 * @param entry the state wanted.
+	 * @return the compressed difference.
+	 * @throws IOException if the spill file could not be read.
+	 */
+	private byte[] readPacked(Entry entry) throws IOException {
+		if (entry.packed != null)
+			return entry.packed;
+		byte[] packed = new byte[entry.length];
+		spill.seek(entry.offset);
+		spill.readFully(packed);
+		return packed;
+	}
+
+	//-----------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Compresses the difference between a state and its neighbour. Tiles the two share are skipped entirely,
+	 * and the rest are XORed with the neighbour's tiles, so that unchanged pixels compress down to almost nothing.
+	 * @param bitmap the state to compress.
+	 * @param neighbour the state it will be decoded against.
+	 * @return the compressed difference.
+	 */
+	private static byte[] encode(Bitmap bitmap, Bitmap neighbour) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+			for (int t = 0; t < bitmap.getTileCount(); t++) {
+				if (bitmap.sharesTile(neighbour, t)) {
+					out.writeBoolean(false);
+					continue;
+				}
+				out.writeBoolean(true);
+				int[] data = bitmap.readTile(t);
+				int[] base = neighbour.readTile(t);
+				ByteBuffer buffer = ByteBuffer.allocate(data.length * 4);
+				for (int i = 0; i < data.length; i++) {
+					buffer.putInt(data[i] ^ base[i]);
+				}
+				out.write(buffer.array());
+			}
+		} catch (IOException e) {
+			// Writing to memory can't fail.
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Rebuilds a state from its compressed difference and its neighbour.
+	 * @param packed the compressed difference.
+	 * @param neighbour the state it was compressed against.
+	 * @return the state as a Bitmap object, sharing the neighbour's tiles wherever they were unchanged.
+	 * @throws IOException if the compressed difference is damaged.
+	 */
+	private static Bitmap decode(byte[] packed, Bitmap neighbour) throws IOException {
+		int[][] changed = new int[neighbour.getTileCount()][];
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(packed)))) {
+			for (int t = 0; t < changed.length; t++) {
+				if (!in.readBoolean())
+					continue;
+				int[] base = neighbour.readTile(t);
+				byte[] bytes = new byte[base.length * 4];
+				in.readFully(bytes);
+				IntBuffer buffer = ByteBuffer.wrap(bytes).asIntBuffer();
+				changed[t] = new int[base.length];
+				for (int i = 0; i < base.length; i++) {
+					changed[t][i] = buffer.get(i) ^ base[i];
+				}
+			}
+		}
+		return neighbour.withTiles(changed);
+	}
+
+	/**
+	 * Works out how much memory a state held as it is counts for.
+	 * @param bitmap the state.
+	 * @return its size in bytes.
+	 */
+	private static long sizeOf(Bitmap bitmap) {
+		return 4L * bitmap.getWidth() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,116 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Writes a 24-bit BMP file a strip of rows at a time, in any order and from any number of threads, so that images far
+ * larger than memory can be written as they are rendered. The header is written up front; every strip then goes straight
+ * to its place in the file. As in any BMP, rows are stored bottom-up as BGR data, each padded to a multiple of 4 bytes.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+class BmpStripWriter implements Closeable {
+	private static final int DATA_OFFSET = 54;											// The size, in bytes, of the headers ahead of the pixel data.
+	private static final int PIXELS_PER_METRE = 2835;									// The resolution recorded in the header, 72 DPI.
+	
+	private static final ThreadLocal<ByteBuffer> stripBuffer = new ThreadLocal<ByteBuffer>();	// Each thread's strip buffer, reused across strips.
+	
+	private FileChannel channel;														// The file being written.
+	private int width;																	// The width, in pixels, of the image.
+	private int height;																	// The height, in pixels, of the image.
+	private int rowSize;																// The size, in bytes, of a row of the file, including its padding.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Creates the file and writes its header.
+	 * @param file the file to write, replaced if it already exists.
+	 * @param width the width, in pixels, of the image.
+	 * @param height the height, in pixels, of the image.
+	 * @throws IOException if the file could not be written to.
+	 */
+	BmpStripWriter(File file, int width, int height) throws IOException {
+		this.width = width;
+		this.height = height;
+		rowSize = (width * 3 + 3) & ~3;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		
+		// Sizes past 4GB don't fit in the header. Readers work them out from the dimensions instead, so we leave them out.
+		long imageSize = (long) rowSize * height;
+		int recordedSize = DATA_OFFSET + imageSize > 0xFFFFFFFFL ? 0 : (int) imageSize;
+		ByteBuffer head = ByteBuffer.allocate(DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+		head.put((byte) 'B').put((byte) 'M');
+		head.putInt(recordedSize == 0 ? 0 : DATA_OFFSET + recordedSize);
+		head.putInt(0);
+		head.putInt(DATA_OFFSET);
+		head.putInt(40);
+		head.putInt(width);
+		head.putInt(height);
+		head.putShort((short) 1);
+		head.putShort((short) 24);
+		head.putInt(0);
+		head.putInt(recordedSize);
+		head.putInt(PIXELS_PER_METRE);
+		head.putInt(PIXELS_PER_METRE);
+		head.putInt(0);
+		head.putInt(0);
+		head.flip();
+		writeFully(head, 0);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Writes a strip of consecutive rows to their place in the file. Safe to call from several threads at once.
+	 * @param top the row of the image, counted from the top, of the strip's first row.
+	 * @param rows the number of rows in the strip.
+	 * @param pixels the packed 0xRRGGBB color of each pixel of the strip, row by row from the top.
+	 * @throws IOException if the file could not be written to.
+	 */
+	void writeRows(int top, int rows, int[] pixels) throws IOException {
+		ByteBuffer strip = stripBuffer.get();
+		if (strip == null || strip.capacity() < rows * rowSize) {
+			strip = ByteBuffer.allocateDirect(rows * rowSize);
+			stripBuffer.set(strip);
+		}
+		
+		// The file holds the rows bottom-up, so the strip's last row comes first.
+		strip.clear();
+		for (int y = rows - 1; y >= 0; y--) {
+			for (int i = y * width, end = i + width; i < end; i++) {
+				// Colors are formatted as BGR.
+				int rgb = pixels[i];
+				strip.put((byte) rgb);
+				strip.put((byte) (rgb >> 8));
+				strip.put((byte) (rgb >> 16));
+			}
+			// Generate padding to match BMP specification.
+			for (int i = width * 3; i < rowSize; i++) {
+				strip.put((byte) 0);
+			}
+		}
+		strip.flip();
+		writeFully(strip, DATA_OFFSET + (long) (height - top - rows) * rowSize);
+	}
+	
+	/**
+	 * Closes the file.
+	 * @throws IOException if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * Writes the whole of a buffer to the file, starting at a given position.
+	 * @param src the buffer to drain.
+	 * @param position the position in the file of the buffer's first byte.
+	 * @throws IOException if the file could not be written to.
+	 */
+	private void writeFully(ByteBuffer src, long position) throws IOException {
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+	}
+}
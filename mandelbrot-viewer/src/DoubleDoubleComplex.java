@@ -0,0 +1,187 @@
+import java.math.*;
+
+/**
+ * A complex number whose components are each held as the unevaluated sum of two doubles, a high part and a low part
+ * holding what the high part had to round away. This gives about 106 bits, or 32 digits, of precision, at a small
+ * fraction of the cost of a <code>BigDecimal</code>. The operations match those of {@link Complex}, storing their results
+ * in place, so a single object can be iterated without allocating anything.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15
+ */
+public class DoubleDoubleComplex {
+	private static final double SPLITTER = 134217729;									// 2^27 + 1, for splitting a double into two halves which multiply exactly.
+	
+	private double realHigh = 0;														// The "real" component, rounded to a double.
+	private double realLow = 0;															// What the rounding of the "real" component left out.
+	private double imagHigh = 0;														// The "imaginary" component's multiplicand, rounded to a double.
+	private double imagLow = 0;															// What the rounding of the "imaginary" component left out.
+	private double[] result = new double[2];											// Holds the high and low parts of the latest intermediate result.
+	
+	/**
+	 * Constructor to build a complex number from a pair of doubles.
+	 * @param inReal the "real" component of the number, a.
+	 * @param inImag the "imaginary" component's multiplicand, b.
+	 */
+	public DoubleDoubleComplex(double inReal, double inImag) {
+		this.realHigh = inReal;
+		this.imagHigh = inImag;
+	}
+	/**
+	 * Constructor to build a complex number from exact values, keeping as much of them as fits.
+	 * @param inReal the "real" component of the number, a.
+	 * @param inImag the "imaginary" component's multiplicand, b.
+	 */
+	public DoubleDoubleComplex(BigDecimal inReal, BigDecimal inImag) {
+		this.realHigh = inReal.doubleValue();
+		this.realLow = inReal.subtract(new BigDecimal(realHigh)).doubleValue();
+		this.imagHigh = inImag.doubleValue();
+		this.imagLow = inImag.subtract(new BigDecimal(imagHigh)).doubleValue();
+	}
+	/**
+	 * Constructor to build a complex number from another.
+	 * @param c a DoubleDoubleComplex object, whose values will be copied.
+	 */
+	public DoubleDoubleComplex(DoubleDoubleComplex c) {
+		this.realHigh = c.realHigh;
+		this.realLow = c.realLow;
+		this.imagHigh = c.imagHigh;
+		this.imagLow = c.imagLow;
+	}
+	
+	/**
+	 * Allows for the multiplication of two complex numbers, storing the result. The resulting complex number is described as
+	 * (a<sub>1</sub>a<sub>2</sub> - b<sub>1</sub>b<sub>2</sub>) + (a<sub>1</sub>b<sub>2</sub> + a<sub>2</sub>b<sub>1</sub>) <em>i</em> .
+	 * @param toMult the other DoubleDoubleComplex object involved in the operation.
+	 */
+	public void multiply(DoubleDoubleComplex toMult) {
+		// Product of two complex numbers is (a1a2 - b1b2) + (a1b2 + a2b1)i
+		multiply(realHigh, realLow, toMult.realHigh, toMult.realLow);
+		double aaHigh = result[0], aaLow = result[1];
+		multiply(imagHigh, imagLow, toMult.imagHigh, toMult.imagLow);
+		double bbHigh = result[0], bbLow = result[1];
+		multiply(realHigh, realLow, toMult.imagHigh, toMult.imagLow);
+		double abHigh = result[0], abLow = result[1];
+		multiply(toMult.realHigh, toMult.realLow, imagHigh, imagLow);
+		add(abHigh, abLow, result[0], result[1]);
+		imagHigh = result[0];
+		imagLow = result[1];
+		add(aaHigh, aaLow, -bbHigh, -bbLow);
+		realHigh = result[0];
+		realLow = result[1];
+	}
+	
+	/**
+	 * Squares this complex number, storing the result. Cheaper than multiplying it by itself, as the square is described as
+	 * (a<sup>2</sup> - b<sup>2</sup>) + 2ab <em>i</em> .
+	 */
+	public void square() {
+		multiply(realHigh, realLow, realHigh, realLow);
+		double aaHigh = result[0], aaLow = result[1];
+		multiply(imagHigh, imagLow, imagHigh, imagLow);
+		double bbHigh = result[0], bbLow = result[1];
+		// Doubling is exact, so it can be done on both parts directly.
+		multiply(realHigh, realLow, 2 * imagHigh, 2 * imagLow);
+		imagHigh = result[0];
+		imagLow = result[1];
+		add(aaHigh, aaLow, -bbHigh, -bbLow);
+		realHigh = result[0];
+		realLow = result[1];
+	}
+	
+	/**
+	 * Allows for the addition of two complex numbers, storing the result. The resulting complex number is described as
+	 * (a<sub>1</sub> + a<sub>2</sub>) + (b<sub>1</sub> + b<sub>2</sub>) <em>i</em> .
+	 * @param toAdd the other DoubleDoubleComplex object involved in the operation.
+	 */
+	public void add(DoubleDoubleComplex toAdd) {
+		// Sum of two complex numbers is (a1 + a2) + (b1 + b2)i
+		add(realHigh, realLow, toAdd.realHigh, toAdd.realLow);
+		realHigh = result[0];
+		realLow = result[1];
+		add(imagHigh, imagLow, toAdd.imagHigh, toAdd.imagLow);
+		imagHigh = result[0];
+		imagLow = result[1];
+	}
+	
+	/**
+	 * Allows for the subtraction of a complex number from this one, storing the result. The resulting complex number is described as
+	 * (a<sub>1</sub> - a<sub>2</sub>) + (b<sub>1</sub> - b<sub>2</sub>) <em>i</em> .
+	 * @param toSub the other DoubleDoubleComplex object involved in the operation.
+	 */
+	public void subtract(DoubleDoubleComplex toSub) {
+		// Subtraction of two complex numbers is (a1 - a2) + (b1 - b2)i
+		add(realHigh, realLow, -toSub.realHigh, -toSub.realLow);
+		realHigh = result[0];
+		realLow = result[1];
+		add(imagHigh, imagLow, -toSub.imagHigh, -toSub.imagLow);
+		imagHigh = result[0];
+		imagLow = result[1];
+	}
+	
+	/**
+	 * Returns the "real" component of this complex number, rounded to a double.
+	 * @return a double value, the "real" component.
+	 */
+	public double getReal() {
+		return this.realHigh;
+	}
+	
+	/**
+	 * Returns the "imaginary" component's multiplicand, rounded to a double.
+	 * @return a double value, the "imaginary" component.
+	 */
+	public double getImag() {
+		return this.imagHigh;
+	}
+	
+	/**
+	 * Returns the distance of this complex number's position from the origin of the plane.
+	 * @return a double value, the distance from the origin.
+	 */
+	public double modulus() {
+		// Modulus is sqrt(a^2 + b^2). Rounded to a double in the end, it doesn't need the low parts.
+		return Math.sqrt(this.realHigh * this.realHigh + this.imagHigh * this.imagHigh);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds two double-double values, leaving the sum in <code>result</code>.
+	 * @param aHigh the high part of the first value.
+	 * @param aLow the low part of the first value.
+	 * @param bHigh the high part of the second value.
+	 * @param bLow the low part of the second value.
+	 */
+	private void add(double aHigh, double aLow, double bHigh, double bLow) {
+		// Add the high parts, recovering exactly what the rounding of their sum threw away.
+		double sum = aHigh + bHigh;
+		double virtual = sum - aHigh;
+		double error = (aHigh - (sum - virtual)) + (bHigh - virtual);
+		error += aLow + bLow;
+		result[0] = sum + error;
+		result[1] = error - (result[0] - sum);
+	}
+	
+	/**
+	 * Multiplies two double-double values, leaving the product in <code>result</code>.
+	 * @param aHigh the high part of the first value.
+	 * @param aLow the low part of the first value.
+	 * @param bHigh the high part of the second value.
+	 * @param bLow the low part of the second value.
+	 */
+	private void multiply(double aHigh, double aLow, double bHigh, double bLow) {
+		// Multiply the high parts, recovering exactly what the rounding of their product threw away by splitting each of
+		// them into halves whose products fit in a double.
+		double product = aHigh * bHigh;
+		double aSplit = SPLITTER * aHigh;
+		double aTop = aSplit - (aSplit - aHigh);
+		double aBottom = aHigh - aTop;
+		double bSplit = SPLITTER * bHigh;
+		double bTop = bSplit - (bSplit - bHigh);
+		double bBottom = bHigh - bTop;
+		double error = ((aTop * bTop - product) + aTop * bBottom + aBottom * bTop) + aBottom * bBottom;
+		error += aHigh * bLow + aLow * bHigh;
+		result[0] = product + error;
+		result[1] = error - (result[0] - product);
+	}
+}
@@ -0,0 +1,303 @@
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Renders, without any window, the frames of a video zooming into the Mandelbrot set, as numbered BMP files. The view
+ * stays centered on the target while its width shrinks by the same factor every frame, from that of the viewer's initial
+ * view down to the width asked for.
+ * <p>
+ * Rather than rendering every frame, only keyframes are computed, at twice the resolution of a frame, one each time the
+ * view halves in width. Every frame is resampled from the keyframe just wider than it, so however many frames there are,
+ * the work done depends only on how deep the zoom goes. Each keyframe's pixels fall on a grid exactly twice as fine as the
+ * previous one's, so a quarter of them were already worked out and are simply copied over. Keyframes are computed a strip
+ * at a time across every core, and the frames drawn from them are resampled and written in parallel too. Pixels take the
+ * classic banded palette rather than the viewer's histogram shading, so that a band keeps its color from frame to frame.
+ * <p>
+ * Usage: <code>java MandelbrotAnimation &lt;target real&gt; &lt;target imaginary&gt; &lt;final view width&gt;
+ * &lt;frames&gt; &lt;pixels across&gt; &lt;pixels down&gt; &lt;max iterations&gt; &lt;output directory&gt;</code>
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+public class MandelbrotAnimation {
+	private static final int KEYFRAME_SCALE = 2;										// The number of times finer a keyframe is than a frame. The view halves between keyframes.
+	private static final int STRIP_ROWS = 16;											// The number of rows of a keyframe computed together.
+	private static final int BLEND_BITS = 8;											// The number of bits of fraction in the weights used to mix two colors.
+	private static final int BLEND_ONE = 1 << BLEND_BITS;								// The weight of a whole color when mixing two.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * The main method, rendering the frames described by the arguments.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 8) {
+			System.err.println("Usage: java MandelbrotAnimation <target real> <target imaginary> <final view width> <frames> <pixels across> <pixels down> <max iterations> <output directory>");
+			System.exit(1);
+		}
+		try {
+			BigDecimal targetReal = new BigDecimal(args[0]);
+			BigDecimal targetImag = new BigDecimal(args[1]);
+			double finalWidth = Double.parseDouble(args[2]);
+			int frames = Integer.parseInt(args[3]);
+			int width = Integer.parseInt(args[4]);
+			int height = Integer.parseInt(args[5]);
+			int maxIterations = Integer.parseInt(args[6]);
+			if (finalWidth <= 0 || frames <= 0 || width <= 0 || height <= 0 || maxIterations <= 0)
+				throw new NumberFormatException("The final view width, frames, size and max iterations must all be positive.");
+			File directory = new File(args[7]);
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create " + directory + ".");
+			
+			long start = System.nanoTime();
+			render(targetReal, targetImag, finalWidth, frames, width, height, maxIterations, directory);
+			System.out.println("Done in " + (System.nanoTime() - start) / 1000000 + "ms.");
+		} catch (NumberFormatException e) {
+			System.err.println("That's not a valid number: " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println("The frames could not be written: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Renders every frame of a zoom into a target, writing them to files numbered from 0.
+	 * @param targetReal the real component of the point the zoom is centered on.
+	 * @param targetImag the imaginary component of the point the zoom is centered on.
+	 * @param finalWidth the width, on the plane, of the last frame.
+	 * @param frames the number of frames.
+	 * @param width the width, in pixels, of a frame.
+	 * @param height the height, in pixels, of a frame.
+	 * @param maxIterations the maximum number of iterations to perform for each point.
+	 * @param directory the directory to write the frames into.
+	 * @throws IOException if a frame could not be written.
+	 */
+	static void render(BigDecimal targetReal, BigDecimal targetImag, double finalWidth, int frames, int width, int height, int maxIterations,
+			File directory) throws IOException {
+		int[] palette = MandelbrotGUI.buildPalette(maxIterations);
+		double zoom = frames > 1 ? Math.pow(finalWidth / MandelbrotGUI.INITIAL_VIEW_WIDTH, 1.0 / (frames - 1)) : 1;
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			Keyframe previous = null;
+			for (int frame = 0; frame < frames; ) {
+				int halvings = halvings(zoom, frame);
+				Keyframe keyframe = new Keyframe(targetReal, targetImag, halvings, width * KEYFRAME_SCALE, height * KEYFRAME_SCALE);
+				keyframe.render(pool, maxIterations, palette, previous);
+				
+				// Draw every frame this keyframe serves, all at once.
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (; frame < frames && halvings(zoom, frame) == halvings; frame++) {
+					double frameWidth = MandelbrotGUI.INITIAL_VIEW_WIDTH * Math.pow(zoom, frame);
+					tasks.add(keyframe.resampleTask(new File(directory, String.format("frame%05d.bmp", frame)), width, height,
+							frameWidth / width / keyframe.view.getScale()));
+				}
+				for (Future<Void> task : pool.invokeAll(tasks)) {
+					task.get();
+				}
+				previous = keyframe;
+				System.out.println("Rendered " + frame + " of " + frames + " frames.");
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Works out which keyframe a frame is drawn from: the narrowest one at least as wide as the frame, so it never has to be
+	 * stretched.
+	 * @param zoom the factor the view's width is multiplied by from one frame to the next.
+	 * @param frame the frame, counted from 0.
+	 * @return the number of times the initial view is halved to get the keyframe.
+	 */
+	private static int halvings(double zoom, int frame) {
+		// Allow for rounding, so a frame exactly as wide as a keyframe is drawn from it.
+		return (int) Math.floor(-frame * Math.log(zoom) / Math.log(2) + 1e-9);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * A view rendered at a higher resolution than the frames, centered on the target, which the frames are drawn from.
+	 */
+	private static class Keyframe {
+		private Viewport view;															// The view of the plane the keyframe shows.
+		private int halvings;															// The number of times the initial view is halved to get this one.
+		private int width;																// The width, in pixels, of the keyframe.
+		private int height;																// The height, in pixels, of the keyframe.
+		private int[] counts;															// The number of iterations of each pixel, row by row.
+		private int[] pixels;															// The packed 0xRRGGBB color of each pixel, row by row.
+		private double targetX;															// The column, with its fraction, the target falls on.
+		private double targetY;															// The row, with its fraction, the target falls on.
+		
+		/**
+		 * Creates a keyframe centered, as closely as its grid allows, on the target.
+		 * @param targetReal the real component of the target.
+		 * @param targetImag the imaginary component of the target.
+		 * @param halvings the number of times the initial view is halved to get this one.
+		 * @param width the width, in pixels, of the keyframe.
+		 * @param height the height, in pixels, of the keyframe.
+		 */
+		Keyframe(BigDecimal targetReal, BigDecimal targetImag, int halvings, int width, int height) {
+			this.halvings = halvings;
+			this.width = width;
+			this.height = height;
+			// Halving by scalb is exact, so every other pixel of a keyframe lands exactly on one of the previous keyframe's.
+			view = Viewport.centeredOn(targetReal, targetImag, Math.scalb(MandelbrotGUI.INITIAL_VIEW_WIDTH / width, -halvings), width, height);
+			counts = new int[width * height];
+			pixels = new int[width * height];
+			
+			// The grid can leave the target up to half a pixel away from the middle pixel.
+			BigDecimal scale = new BigDecimal(view.getScale());
+			targetX = width / 2 + targetReal.subtract(view.exactReal(width / 2)).divide(scale, MathContext.DECIMAL64).doubleValue();
+			targetY = height / 2 + view.exactImag(height / 2).subtract(targetImag).divide(scale, MathContext.DECIMAL64).doubleValue();
+		}
+		
+		/**
+		 * Computes and colors every pixel of the keyframe, a strip at a time across a pool. Pixels the previous keyframe
+		 * already computed are copied from it.
+		 * @param pool the pool to spread the strips across.
+		 * @param maxIterations the maximum number of iterations to perform for each point.
+		 * @param palette the color of each number of iterations.
+		 * @param previous the keyframe before this one, or null if there isn't one.
+		 * @throws InterruptedException if interrupted while waiting for the strips.
+		 * @throws ExecutionException if a strip failed.
+		 */
+		void render(ExecutorService pool, final int maxIterations, final int[] palette, Keyframe previous) throws InterruptedException, ExecutionException {
+			final ReferenceOrbit orbit = view.getScale() < MandelbrotRenderer.DEEP_SCALE ? new ReferenceOrbit(view, width, height, maxIterations) : null;
+			final Keyframe coarse = previous != null && previous.halvings == halvings - 1 ? previous : null;
+			
+			// Where the previous keyframe's grid sits within this one's, which is twice as fine.
+			final int offsetX = coarse == null ? 0 : view.getX().subtract(coarse.view.getX().shiftLeft(1)).intValue();
+			final int offsetY = coarse == null ? 0 : view.getY().subtract(coarse.view.getY().shiftLeft(1)).intValue();
+			List<Callable<Void>> strips = new ArrayList<Callable<Void>>();
+			for (int top = 0; top < height; top += STRIP_ROWS) {
+				final int stripTop = top;
+				final int rows = Math.min(STRIP_ROWS, height - top);
+				strips.add(new Callable<Void>() {
+					public Void call() {
+						double[] cReal = new double[width];
+						int[] rowCounts = new int[width];
+						int[] columns = new int[width];
+						for (int y = stripTop; y < stripTop + rows; y++) {
+							int coarseRow = Math.floorDiv(y + offsetY, 2);
+							if (coarse == null || ((y + offsetY) & 1) != 0 || coarseRow < 0 || coarseRow >= coarse.height) {
+								MandelbrotPoster.computeRow(view, orbit, y, width, maxIterations, cReal, rowCounts);
+								System.arraycopy(rowCounts, 0, counts, y * width, width);
+							} else {
+								computeGaps(coarse, coarseRow, offsetX, orbit, y, maxIterations, cReal, rowCounts, columns);
+							}
+							for (int x = 0, i = y * width; x < width; x++, i++) {
+								pixels[i] = palette[counts[i]];
+							}
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Void> strip : pool.invokeAll(strips)) {
+				strip.get();
+			}
+		}
+		
+		/**
+		 * Fills in a row lying on one of the previous keyframe's rows, copying the pixels it shares with it and computing only
+		 * those in between.
+		 * @param coarse the previous keyframe.
+		 * @param coarseRow the row of the previous keyframe this row lies on.
+		 * @param offsetX how far, in this keyframe's pixels, its first column is from the previous keyframe's.
+		 * @param orbit the orbit the pixels are computed around, or null if doubles are fine enough.
+		 * @param y the row.
+		 * @param maxIterations the maximum number of iterations to perform for each point.
+		 * @param cReal working space for the real component of each pixel, at least as long as the row.
+		 * @param rowCounts working space for the number of iterations of each pixel, at least as long as the row.
+		 * @param columns working space for the column of each pixel computed, at least as long as the row.
+		 */
+		private void computeGaps(Keyframe coarse, int coarseRow, int offsetX, ReferenceOrbit orbit, int y, int maxIterations, double[] cReal,
+				int[] rowCounts, int[] columns) {
+			int missing = 0;
+			for (int x = 0, i = y * width; x < width; x++, i++) {
+				int coarseColumn = Math.floorDiv(x + offsetX, 2);
+				if (((x + offsetX) & 1) == 0 && coarseColumn >= 0 && coarseColumn < coarse.width)
+					counts[i] = coarse.counts[coarseRow * coarse.width + coarseColumn];
+				else
+					columns[missing++] = x;
+			}
+			
+			// Gather what's left so the batch kernel can still take it in one go.
+			if (orbit != null) {
+				for (int j = 0; j < missing; j++) {
+					counts[y * width + columns[j]] = orbit.iterations(columns[j], y);
+				}
+			} else {
+				for (int j = 0; j < missing; j++) {
+					cReal[j] = view.real(columns[j]);
+				}
+				MandelbrotRenderer.doIterations(cReal, view.imag(y), rowCounts, missing, maxIterations);
+				for (int j = 0; j < missing; j++) {
+					counts[y * width + columns[j]] = rowCounts[j];
+				}
+			}
+		}
+		
+		/**
+		 * Creates a task drawing a frame, centered on the target, by bilinear resampling of the keyframe, and writing it out.
+		 * @param file the file to write the frame to.
+		 * @param frameWidth the width, in pixels, of the frame.
+		 * @param frameHeight the height, in pixels, of the frame.
+		 * @param ratio the number of keyframe pixels spanned by one pixel of the frame.
+		 * @return the task.
+		 */
+		Callable<Void> resampleTask(final File file, final int frameWidth, final int frameHeight, final double ratio) {
+			return new Callable<Void>() {
+				public Void call() throws IOException {
+					// Every row samples the same columns, so work them out once.
+					int[] left = new int[frameWidth];
+					int[] weightX = new int[frameWidth];
+					for (int x = 0; x < frameWidth; x++) {
+						double keyX = Math.min(Math.max(targetX + (x - frameWidth / 2) * ratio, 0), width - 1);
+						left[x] = Math.min((int) keyX, width - 2);
+						weightX[x] = (int) ((keyX - left[x]) * BLEND_ONE);
+					}
+					
+					int[] frame = new int[frameWidth * frameHeight];
+					for (int y = 0, i = 0; y < frameHeight; y++) {
+						double keyY = Math.min(Math.max(targetY + (y - frameHeight / 2) * ratio, 0), height - 1);
+						int top = Math.min((int) keyY, height - 2) * width;
+						int weightY = (int) ((keyY - top / width) * BLEND_ONE);
+						for (int x = 0; x < frameWidth; x++, i++) {
+							int k = top + left[x];
+							frame[i] = blend(blend(pixels[k], pixels[k + 1], weightX[x]), blend(pixels[k + width], pixels[k + width + 1], weightX[x]), weightY);
+						}
+					}
+					try (BmpStripWriter writer = new BmpStripWriter(file, frameWidth, frameHeight)) {
+						writer.writeRows(0, frameHeight, frame);
+					}
+					return null;
+				}
+			};
+		}
+		
+		/**
+		 * Mixes two colors, channel by channel.
+		 * @param a the first color, as a packed 0xRRGGBB value.
+		 * @param b the second color.
+		 * @param weight how much of the second color to take, out of <code>BLEND_ONE</code>.
+		 * @return the mixed color.
+		 */
+		private static int blend(int a, int b, int weight) {
+			// Red and blue are far enough apart to be mixed together without spilling into each other.
+			int redBlue = ((a & 0xFF00FF) * (BLEND_ONE - weight) + (b & 0xFF00FF) * weight) >>> BLEND_BITS;
+			int green = ((a & 0x00FF00) * (BLEND_ONE - weight) + (b & 0x00FF00) * weight) >>> BLEND_BITS;
+			return (redBlue & 0xFF00FF) | (green & 0x00FF00);
+		}
+	}
+}
@@ -16,14 +16,17 @@ public class MandelbrotGUI extends JFrame {
 	private static final int FRAME_POSITION = 150;										// The initial position of the window on the user's screen.
 	private static final double INITIAL_LEFT_REAL = -2.2;								// The real component for the position of the initial top-left corner.
 	private static final double INITIAL_LEFT_IMAG = 1.8;								// The imaginary component for the position of the initial top-left-corner.
-	private static final double INITIAL_VIEW_WIDTH = 3.6;								// The initial width of the frame on the complex plane.
+	static final double INITIAL_VIEW_WIDTH = 3.6;										// The initial width of the frame on the complex plane.
 	
 																						// The initial maximum number of iterations we'll process before assuming the sequence tends to infinity.
 	private static final double INITIAL_MAX_ITERATIONS = 100;							// The higher this value, the more detail, but will also cause more overhead processing.
 																						// Can be changed by the user by entering the File menu.
 	
 	private static final double ZOOM_AMOUNT = 0.65;										// The percentage by which the zoom in function affects the view.
+	private static final long CACHE_BUDGET = 64L << 20;									// The number of bytes the renderer may keep rendered tiles in, for views we come back to.
+	private static final int PALETTE_SHADES = 1024;									// The number of shades escaping pixels are spread over.
 	private static final double SCROLL_AMOUNT = 0.2;									// The percentage of the current plane width we move when the user scrolls.
+	private static final int SCROLL_PIXELS = (int) Math.round(SCROLL_AMOUNT * FRAME_WIDTH);	// The same distance in whole pixels, so that the pixels still on screen line up exactly.
 	private static final double COLOR_THRESHOLD = 90;									// The threshold in RG values, below which we consider for "low" iterations, above which we consider for more.
 	
 	private static final int NORTH = SwingConstants.NORTH;								// <--------------
@@ -32,15 +35,22 @@ public class MandelbrotGUI extends JFrame {
 	private static final int WEST = SwingConstants.WEST;								// <--------------
 	
 	private double maxIterations = INITIAL_MAX_ITERATIONS;								// The current max iterations value.
-	private double colorIncrementLow = COLOR_THRESHOLD / maxIterations * 10;			// The incrementation by which the red and green values increases for lower iterations required to represent a point.
-	private double colorIncrementHigh = (255 - COLOR_THRESHOLD) / maxIterations;		// The incrementation by which the red and green values increases for higher iterations required to represent a point.
-	private double planeWidth = INITIAL_VIEW_WIDTH;										// The current width of the complex plane displayed. Set to the default value.
-	private double scale = INITIAL_VIEW_WIDTH / FRAME_WIDTH;							// The number of units on the plane per pixel. Set to the default value.
+	private boolean subdividing = false;												// Whether uniform areas are filled in from their borders rather than computed.
+	private boolean antialiasing = false;												// Whether the edges of the set are smoothed by sampling them again.
+	
+	private MandelbrotRenderer renderer = new MandelbrotRenderer(FRAME_WIDTH, FRAME_WIDTH, CACHE_BUDGET);	// The engine drawing the set into our display.
+	private int[] palette = buildPalette(PALETTE_SHADES);								// The shades the renderer spreads escaping pixels over, followed by the color of the set.
+	
+	private Runnable repaintFrame = new Runnable() {									// Repaints the frame each time the renderer has refined it.
+		public void run() {
+			repaint();
+		}
+	};
 	
 	private JLabel frame = null;														// The component holding the graphical representation of the set.
 	BufferedImage display = null;														// The graphical representation of the set.
 	
-	private Complex curTopLeft = new Complex(INITIAL_LEFT_REAL, INITIAL_LEFT_IMAG);		// Holds the current top-left corner coordinate in the Complex plane.
+	private Viewport view = initialView();												// Holds the current view of the complex plane, pinned to a grid of pixels.
 	
 	//---------------------------------------------------------------------------------------------------------------------------------------------
 	
@@ -78,9 +88,7 @@ public class MandelbrotGUI extends JFrame {
 		restore.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				// Restore all the defaults.
-				curTopLeft = new Complex(INITIAL_LEFT_REAL, INITIAL_LEFT_IMAG);
-				scale = INITIAL_VIEW_WIDTH / FRAME_WIDTH;
-				planeWidth = INITIAL_VIEW_WIDTH;
+				view = initialView();
 				redrawFrame();
 			}
 		});
@@ -100,6 +108,10 @@ public class MandelbrotGUI extends JFrame {
 				iterChoice.setMinorTickSpacing(50);
 				iterChoice.setSnapToTicks(true);
 				iterChoice.setPaintTicks(true);
+				// Whether to skip over uniform areas. Faster, but small details inside them can be missed.
+				JCheckBox subdivideChoice = new JCheckBox("Fill uniform areas from their borders (faster)", subdividing);
+				// Whether to smooth jagged edges. Only pixels on an edge are sampled again.
+				JCheckBox antialiasChoice = new JCheckBox("Smooth the edges of the set (slower)", antialiasing);
 				// Confirmation buttons.
 				JButton apply = new JButton("Apply");
 				JButton cancel = new JButton("Cancel");
@@ -107,8 +119,10 @@ public class MandelbrotGUI extends JFrame {
 					public void actionPerformed(ActionEvent e) {
 						// Apply any changes.
 						maxIterations = iterChoice.getValue();
-						colorIncrementLow = COLOR_THRESHOLD / maxIterations * 10;
-						colorIncrementHigh = (255 - COLOR_THRESHOLD) / maxIterations;
+						subdividing = subdivideChoice.isSelected();
+						renderer.setSubdividing(subdividing);
+						antialiasing = antialiasChoice.isSelected();
+						renderer.setAntialiasing(antialiasing);
 						optionBox.dispose();
 						((MandelbrotGUI) getMe()).redrawFrame();
 					}
@@ -125,6 +139,8 @@ public class MandelbrotGUI extends JFrame {
 				buttonContainer.add(cancel);
 				mainContainer.add(iterInstruct);
 				mainContainer.add(iterChoice);
+				mainContainer.add(subdivideChoice);
+				mainContainer.add(antialiasChoice);
 				mainContainer.add(buttonContainer);
 				optionBox.add(mainContainer);
 				optionBox.pack();
@@ -187,39 +203,20 @@ public class MandelbrotGUI extends JFrame {
 	
 	/**
 	 * The method which redraws the frame containing the imagery for the user, whenever it needs refreshing.
+	 * The frame fills in from coarse to fine in the background, so this returns straight away.
 	 */
 	private void redrawFrame() {
-		// We have to go through all of the pixels in our frame.
-		for (int x = 0; x < FRAME_WIDTH; x++) {
-			for (int y = 0; y < FRAME_WIDTH; y++) {
-				// Determine where this pixel is located on the plane. Then we run Mandelbrot's Rule and determine the appropriate color.
-				Complex thisPoint = new Complex(curTopLeft.getReal() + (x * scale), curTopLeft.getImag() - (y * scale));
-				display.setRGB(x, y, (pickColor(doIterations(thisPoint))).getRGB());
-			}
-		}
-		// Repaint the frame.
-		revalidate();
-		repaint();
+		// Have the renderer run Mandelbrot's Rule over every pixel in our frame, spread across all of the cores.
+		renderer.render(display, view, (int) maxIterations, palette, repaintFrame);
 	}
 	
 	/**
-	 * Takes in a point on the complex plane and calculates the number of iterations of the Mandelbrot Rule
-	 * @param c a Complex object, which will serve as Z<sub>0</sub>.
-	 * @return an integer, the number of iterations of the Mandelbrot Rule before we leave a circle of radius 2.
+	 * Creates the view the viewer starts with. Its grid is anchored at the initial top-left corner, and each zoom level
+	 * shrinks the view by ZOOM_AMOUNT.
+	 * @return the initial view.
 	 */
-	private int doIterations(Complex orig) {
-		// Duplicate the Complex object and set the counter.
-		Complex c = new Complex(0, 0);
-		int counter = 0;
-		
-		// As long as our c doesn't cross the circle of radius 2, we keep squaring it and adding orig to itself.
-		while (c.modulus() <= 2.0 && counter < maxIterations) {
-			c.multiply(c);
-			c.add(orig);
-			counter++;
-		}
-		// We'll return the counter value which last met the Mandelbrot Rule.
-		return counter;
+	private static Viewport initialView() {
+		return new Viewport(INITIAL_LEFT_REAL, INITIAL_LEFT_IMAG, INITIAL_VIEW_WIDTH / FRAME_WIDTH, ZOOM_AMOUNT);
 	}
 	
 	/**
@@ -231,27 +228,36 @@ public class MandelbrotGUI extends JFrame {
 		// Extract the coordinates from the Point object, which was obtained from our user's mouse click event.
 		int x = (int) location.getX();
 		int y = (int) location.getY();
-		// Determine the corresponding point on the complex plane.
-		Complex thisPoint = new Complex(curTopLeft.getReal() + (x * scale), curTopLeft.getImag() - (y * scale));
 		
-		// Check if we were asked to zoom in or out.
-		if (inward)
-			planeWidth *= ZOOM_AMOUNT;
-		else
-			planeWidth /= ZOOM_AMOUNT;
-		
-		// Recalculate the resulting number of units on the plane per pixel, and then the new top-left coordinate. Redraw the image!
-		scale = planeWidth / FRAME_WIDTH;
-		curTopLeft = new Complex(thisPoint.getReal() - (FRAME_WIDTH / 2 * scale), thisPoint.getImag() + (FRAME_WIDTH / 2 * scale));
+		// Move a zoom level in or out, depending on what we were asked, and center the new view on the point. Redraw the image!
+		view = view.zoom(x, y, inward ? 1 : -1, FRAME_WIDTH, FRAME_WIDTH);
 		redrawFrame();
 	}
 	
+	/**
+	 * Works out the classic banded palette, a color for every number of iterations a pixel can take, so that coloring a
+	 * pixel is a single lookup. Posters and animations are colored this way. The viewer only borrows the ramp, asking for
+	 * as many shades as it spreads pixels over by histogram.
+	 * @param maxIterations the max iterations value the colors are spread over.
+	 * @return an array holding the packed RGB color for each number of iterations, from 0 to the max.
+	 */
+	static int[] buildPalette(double maxIterations) {
+		int[] colors = new int[(int) maxIterations + 1];
+		for (int numIter = 0; numIter < colors.length; numIter++) {
+			colors[numIter] = pickColor(numIter, maxIterations).getRGB();
+		}
+		return colors;
+	}
+	
 	/**
 	 * Returns a Color object, varying depending on the number of iterations performed for that pixel.
 	 * @param numIter an integer for the number of iterations performed
+	 * @param maxIterations the max iterations value the colors are spread over.
 	 * @return a correponding Color object.
 	 */
-	private Color pickColor(int numIter) {
+	private static Color pickColor(int numIter, double maxIterations) {
+		double colorIncrementLow = COLOR_THRESHOLD / maxIterations * 10;				// The incrementation by which the red and green values increases for lower iterations required to represent a point.
+		double colorIncrementHigh = (255 - COLOR_THRESHOLD) / maxIterations;			// The incrementation by which the red and green values increases for higher iterations required to represent a point.
 		Color result = null;
 		// We're distinguishing the cases where the number of iterations was low vs. high. Provides a nicer contrast while still having detail at deeper zoom levels.
 		if (numIter <= maxIterations / 10)
@@ -274,19 +280,19 @@ public class MandelbrotGUI extends JFrame {
 			// Get the button pressed and determine its direction.
 			switch (((BasicArrowButton) e.getSource()).getDirection()) {
 			case NORTH:
-				curTopLeft.add(new Complex(0, planeWidth * SCROLL_AMOUNT));
+				view = view.pan(0, -SCROLL_PIXELS);
 				break;
 			case SOUTH:
-				curTopLeft.subtract(new Complex(0, planeWidth * SCROLL_AMOUNT));
+				view = view.pan(0, SCROLL_PIXELS);
 				break;
 			case EAST:
-				curTopLeft.add(new Complex(planeWidth * SCROLL_AMOUNT, 0));
+				view = view.pan(SCROLL_PIXELS, 0);
 				break;
 			case WEST:
-				curTopLeft.subtract(new Complex(planeWidth * SCROLL_AMOUNT, 0));
+				view = view.pan(-SCROLL_PIXELS, 0);
 				break;
 			}
-			// Redraw the image for the user.
+			// Redraw the image for the user. Only the strip scrolled into view needs computing.
 			redrawFrame();
 		}
 	}
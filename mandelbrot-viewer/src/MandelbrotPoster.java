@@ -0,0 +1,146 @@
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Renders the Mandelbrot set, without any window, into a BMP file of any size, such as a poster for print. The image is
+ * split into strips of rows which are rendered across every core and written to the file as soon as each one is done,
+ * so the memory needed stays the same however large the image is. Pixels take the classic banded palette, a color for
+ * each number of iterations, rather than the viewer's histogram shading, which needs every pixel before any is colored.
+ * <p>
+ * Usage: <code>java MandelbrotPoster &lt;center real&gt; &lt;center imaginary&gt; &lt;view width&gt; &lt;pixels across&gt;
+ * &lt;pixels down&gt; &lt;max iterations&gt; &lt;output file&gt;</code>
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+public class MandelbrotPoster {
+	private static final int STRIP_ROWS = 16;											// The number of rows rendered and written together.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * The main method, rendering the image described by the arguments.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 7) {
+			System.err.println("Usage: java MandelbrotPoster <center real> <center imaginary> <view width> <pixels across> <pixels down> <max iterations> <output file>");
+			System.exit(1);
+		}
+		try {
+			BigDecimal centerReal = new BigDecimal(args[0]);
+			BigDecimal centerImag = new BigDecimal(args[1]);
+			double viewWidth = Double.parseDouble(args[2]);
+			int width = Integer.parseInt(args[3]);
+			int height = Integer.parseInt(args[4]);
+			int maxIterations = Integer.parseInt(args[5]);
+			if (viewWidth <= 0 || width <= 0 || height <= 0 || maxIterations <= 0)
+				throw new NumberFormatException("The view width, size and max iterations must all be positive.");
+			
+			long start = System.nanoTime();
+			render(Viewport.centeredOn(centerReal, centerImag, viewWidth / width, width, height), width, height, maxIterations, new File(args[6]));
+			System.out.println("Done in " + (System.nanoTime() - start) / 1000000 + "ms.");
+		} catch (NumberFormatException e) {
+			System.err.println("That's not a valid number: " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println("The image could not be written: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Renders a view into a BMP file, a strip at a time across every core.
+	 * @param view the view of the plane to draw.
+	 * @param width the width, in pixels, of the image.
+	 * @param height the height, in pixels, of the image.
+	 * @param maxIterations the maximum number of iterations to perform for each point.
+	 * @param file the file to write.
+	 * @throws IOException if the file could not be written to.
+	 */
+	static void render(final Viewport view, final int width, final int height, final int maxIterations, File file) throws IOException {
+		final int[] palette = MandelbrotGUI.buildPalette(maxIterations);
+		final ReferenceOrbit orbit = view.getScale() < MandelbrotRenderer.DEEP_SCALE ? new ReferenceOrbit(view, width, height, maxIterations) : null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final ThreadLocal<StripBuffers> buffers = new ThreadLocal<StripBuffers>() {		// Each thread's working space, reused across strips.
+			protected StripBuffers initialValue() {
+				return new StripBuffers(width);
+			}
+		};
+		
+		try (final BmpStripWriter writer = new BmpStripWriter(file, width, height)) {
+			// Hand out every strip, then wait for them in order, so a failure is reported as soon as it's reached.
+			List<Future<?>> strips = new ArrayList<Future<?>>();
+			for (int top = 0; top < height; top += STRIP_ROWS) {
+				final int stripTop = top;
+				final int rows = Math.min(STRIP_ROWS, height - top);
+				strips.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						StripBuffers strip = buffers.get();
+						for (int y = 0; y < rows; y++) {
+							computeRow(view, orbit, stripTop + y, width, maxIterations, strip.cReal, strip.counts);
+							for (int x = 0, i = y * width; x < width; x++, i++) {
+								strip.pixels[i] = palette[strip.counts[x]];
+							}
+						}
+						writer.writeRows(stripTop, rows, strip.pixels);
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < strips.size(); i++) {
+				strips.get(i).get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Calculates the number of iterations of every pixel in a row of a view.
+	 * @param view the view of the plane being drawn.
+	 * @param orbit the orbit the pixels are computed around, or null if doubles are fine enough.
+	 * @param y the row.
+	 * @param width the width, in pixels, of the view.
+	 * @param maxIterations the maximum number of iterations to perform for each point.
+	 * @param cReal working space for the real component of each pixel, at least as long as the row.
+	 * @param counts receives the number of iterations of each pixel.
+	 */
+	static void computeRow(Viewport view, ReferenceOrbit orbit, int y, int width, int maxIterations, double[] cReal, int[] counts) {
+		if (orbit != null) {
+			for (int x = 0; x < width; x++) {
+				counts[x] = orbit.iterations(x, y);
+			}
+		} else {
+			for (int x = 0; x < width; x++) {
+				cReal[x] = view.real(x);
+			}
+			MandelbrotRenderer.doIterations(cReal, view.imag(y), counts, width, maxIterations);
+		}
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * The working space a thread needs to render a strip.
+	 */
+	private static class StripBuffers {
+		final int[] pixels;																// The colors of the strip, row by row.
+		final double[] cReal;															// The real component of each pixel of a row.
+		final int[] counts;																// The number of iterations of each pixel of a row.
+		
+		StripBuffers(int width) {
+			pixels = new int[STRIP_ROWS * width];
+			cReal = new double[width];
+			counts = new int[width];
+		}
+	}
+}
@@ -0,0 +1,1334 @@
+import java.awt.image.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Renders views of the Mandelbrot set into an image. The frame is split into small square tiles which are handed out to a
+ * work-stealing pool, since the cost of a tile varies wildly with how close it lies to the set. Once every tile of a pass is
+ * done, the frame is colored straight into the image's pixel array, again a tile at a time.
+ * <p>
+ * Frames are rendered progressively in the background: first every 8th pixel in each direction, then every 4th, 2nd and
+ * finally every pixel, with each pass reusing the samples of the ones before it. Asking for a new frame abandons whatever
+ * is still in progress. When the new frame lies on the same pixel grid as the last one, as it does after a pan, the
+ * iterations of the pixels they share are moved over rather than computed again.
+ * <p>
+ * Changing the maximum iterations doesn't start the frame over either. The last z of every pixel which hasn't escaped is
+ * kept, so raising the limit only carries on with those pixels from where they stopped. Lowering it only recolors the
+ * frame: the iterations worked out for the higher limit are kept, and any past the new one are drawn as part of the set.
+ * Once the view moves, they are cut back to the new limit, so that the pixels it uncovers aren't followed any further.
+ * <p>
+ * Colors are spread by histogram equalisation, so that whatever the depth and the maximum iterations, each shade covers
+ * about as much of the frame as any other. Every escaping pixel is given a continuous count, its iterations plus how far
+ * past them it got, which picks its shade between those of its whole number of iterations and the next one. The histogram
+ * grows with each pass: the threads tally the samples each new pass adds into histograms of their own, which are merged
+ * into the frame's once the pass is over, before it is colored.
+ * <p>
+ * Tiles are laid out on a fixed grid for each zoom level rather than on the frame, so that whole tiles can be kept in a
+ * {@link TileCache} and picked up again by any later frame at the same level which covers them.
+ * <p>
+ * Optionally, each tile can instead be filled in by Mariani-Silver subdivision on the first pass. Only the border of the
+ * tile is computed; if every pixel on it has the same iterations, the inside is filled with them, and otherwise the tile is
+ * split into quarters which are each handled the same way. Since the set is connected, a border of points which all escape
+ * at the same rate can't hide any of it, so large plain areas come almost for free.
+ * <p>
+ * Once the pixels of a view are too close together for a double to tell them apart, the frame switches to computing them
+ * by perturbation around a {@link ReferenceOrbit}.
+ * <p>
+ * Optionally, a last pass smooths the jagged edges of the set. Only pixels whose iterations stand out from those of a
+ * neighbour are sampled again, on a 4x4 grid of points jittered within the pixel, and drawn in the average of their
+ * colors. The jitter is worked out from the pixel's place on the plane, so a pixel looks the same from frame to frame.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+class MandelbrotRenderer {
+	static final int TILE_SIZE = 32;													// The width and height, in pixels, of a tile.
+	private static final int COARSEST_STEP = 8;											// The distance, in pixels, between the samples of the first pass. Must divide TILE_SIZE.
+	static final double DEEP_SCALE = 1e-12;												// The scale below which views are computed by perturbation, as doubles run out of digits.
+	private static final int UNKNOWN = -1;												// Marks a pixel whose iterations haven't been computed yet.
+	private static final int INTERIOR = Integer.MAX_VALUE;								// Marks a pixel in the main cardioid or the period-2 bulb, which never escapes whatever the limit.
+	private static final int STOPPED = -2;												// Marks, as STOPPED - n, a pixel which ran out n iterations of an earlier frame and is to be carried on with.
+	private static final double SMOOTH_RADIUS = 256;									// The radius escaping points are followed out to, for smooth coloring.
+	private static final int SAMPLE = 0;												// The stage of a pass which computes its samples.
+	private static final int COLOR = 1;													// The stage of a pass which colors the frame from the samples.
+	private static final int SMOOTH = 2;												// The pass which smooths the edges.
+	private static final int EDGE_THRESHOLD = 2;										// The least difference in iterations from a neighbour past which a pixel is smoothed.
+	private static final int EDGE_RATIO = 8;											// A pixel may differ from a neighbour by its iterations over this without being smoothed.
+	private static final int EDGE_GRID = 4;												// The number of samples across and down a smoothed pixel.
+	
+	private TileCache cache;															// The iterations of tiles rendered before.
+	private ForkJoinPool pool = new ForkJoinPool();										// The pool the tiles are spread across, one thread per core.
+	private ExecutorService driver;														// The thread running the passes of each frame, one frame after another.
+	private AtomicInteger generation = new AtomicInteger();								// The number of the latest frame asked for. Older frames stop when they see it change.
+	private int width;																	// The width, in pixels, of the frame.
+	private int height;																	// The height, in pixels, of the frame.
+	private int[] counts;																// The number of iterations of each pixel of the frame, INTERIOR, UNKNOWN, or STOPPED less those run so far.
+	private int[] spare;																// A second buffer the size of counts, for moving iterations between frames.
+	private float[] fractions;															// The fraction of an iteration each escaping pixel got past its iterations.
+	private float[] spareFractions;														// A second buffer the size of fractions, for moving them between frames.
+	private double[] lastReal;															// The real component of z for each pixel which hasn't escaped, as its last iteration left it, or NaN if it wasn't kept.
+	private double[] lastImag;															// The imaginary component of z for each pixel which hasn't escaped.
+	private int[] lastSteps;															// For frames computed by perturbation, which keep z's offset from the reference orbit instead, the step of the orbit it is taken from.
+	private double[] spareReal;															// A second buffer the size of lastReal, for moving it between frames.
+	private double[] spareImag;															// A second buffer the size of lastImag, for moving it between frames.
+	private int[] spareSteps;															// A second buffer the size of lastSteps, for moving them between frames.
+	private int[] histogram;															// The number of the current frame's samples tallied so far with each whole continuous count.
+	private List<Tally> tallies = Collections.synchronizedList(new ArrayList<Tally>());	// The histogram of every thread which has tallied samples.
+	private ThreadLocal<RowBuffers> rowBuffers = new ThreadLocal<RowBuffers>() {		// Each thread's working space for computing a row of a tile, reused across rows.
+		protected RowBuffers initialValue() {
+			return new RowBuffers();
+		}
+	};
+	private ThreadLocal<Tally> tally = new ThreadLocal<Tally>() {						// Each thread's own histogram, merged into the frame's after every pass.
+		protected Tally initialValue() {
+			Tally partial = new Tally();
+			tallies.add(partial);
+			return partial;
+		}
+	};
+	private Viewport countsView;														// The view the iterations in counts belong to.
+	private int countsLimit;															// The number of iterations the pixels in counts were followed for, the highest limit asked for on this view.
+	private boolean countsGuessed;														// Whether some of the iterations in counts were filled in by subdivision rather than computed.
+	private boolean subdividing;														// Whether new frames are filled in by subdivision.
+	private boolean antialiasing = false;												// Whether new frames end with a pass smoothing their edges.
+	private boolean[] finished;															// Whether each tile of the current frame has been drawn with every pixel known.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Creates a renderer for frames of the given size.
+	 * @param width the width, in pixels, of the frame.
+	 * @param height the height, in pixels, of the frame.
+	 * @param cacheBudget the number of bytes the cache of rendered tiles may take up.
+	 */
+	MandelbrotRenderer(int width, int height, long cacheBudget) {
+		this.width = width;
+		this.height = height;
+		cache = new TileCache(TILE_SIZE, cacheBudget);
+		counts = new int[width * height];
+		spare = new int[width * height];
+		fractions = new float[width * height];
+		spareFractions = new float[width * height];
+		lastReal = new double[width * height];
+		lastImag = new double[width * height];
+		lastSteps = new int[width * height];
+		spareReal = new double[width * height];
+		spareImag = new double[width * height];
+		spareSteps = new int[width * height];
+		// A frame which doesn't line up with the grid of tiles straddles one more tile each way.
+		finished = new boolean[((width + TILE_SIZE - 1) / TILE_SIZE + 1) * ((height + TILE_SIZE - 1) / TILE_SIZE + 1)];
+		driver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MandelbrotRenderer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * A setter method for the way frames are filled in, which takes effect from the next frame asked for.
+	 * @param subdividing <code>true</code> to fill tiles in by subdivision, skipping over uniform areas, or
+	 *        <code>false</code> to compute every pixel.
+	 */
+	void setSubdividing(boolean subdividing) {
+		this.subdividing = subdividing;
+	}
+	
+	/**
+	 * A setter method for whether the edges of the set are smoothed, which takes effect from the next frame asked for.
+	 * @param antialiasing <code>true</code> to sample pixels on an edge again at several points, or <code>false</code> to
+	 *        leave every pixel at one sample.
+	 */
+	void setAntialiasing(boolean antialiasing) {
+		this.antialiasing = antialiasing;
+	}
+	
+	/**
+	 * Starts rendering a view of the plane into an image, and returns straight away. Any frame still being rendered is
+	 * abandoned.
+	 * @param display the image to draw into, of type <code>TYPE_INT_RGB</code> and at least as large as the frame.
+	 * @param view the view of the plane to draw.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 * @param palette the packed 0xRRGGBB shades escaping pixels are spread over, from the fewest iterations to the most,
+	 *        followed by the color of pixels which never escape.
+	 * @param onPass called, from the rendering thread, each time a pass has been drawn into the image.
+	 */
+	void render(BufferedImage display, Viewport view, int limit, int[] palette, final Runnable onPass) {
+		final Frame frame = new Frame(display.getRaster(), view, limit, palette, generation.incrementAndGet(), subdividing, antialiasing, width, height);
+		driver.execute(new Runnable() {
+			public void run() {
+				renderFrame(frame, onPass);
+			}
+		});
+	}
+	
+	/**
+	 * Runs every pass of a frame, from the coarsest to the finest and then the edges, unless a newer frame comes along first.
+	 * @param frame the frame to render.
+	 * @param onPass called each time a pass has been drawn into the image.
+	 */
+	private void renderFrame(Frame frame, Runnable onPass) {
+		if (isStale(frame))
+			return;
+		reuse(frame);
+		if (frame.view.getScale() < DEEP_SCALE) {
+			frame.orbit = new ReferenceOrbit(frame.view, width, height, frame.depth);
+			if (isStale(frame))
+				return;
+		}
+		Arrays.fill(finished, false);
+		histogram = new int[frame.limit];
+		synchronized (tallies) {
+			for (Tally partial : tallies) {
+				partial.reset(frame.limit);
+			}
+		}
+		for (int step = COARSEST_STEP; step >= 1; step /= 2) {
+			pool.invoke(new TileTask(frame, SAMPLE, step, 0, frame.columns * frame.rows));
+			if (isStale(frame))
+				return;
+			frame.shades = equalise();
+			pool.invoke(new TileTask(frame, COLOR, step, 0, frame.columns * frame.rows));
+			if (isStale(frame))
+				return;
+			onPass.run();
+		}
+		if (frame.antialiasing) {
+			pool.invoke(new TileTask(frame, SMOOTH, 1, 0, frame.columns * frame.rows));
+			if (isStale(frame))
+				return;
+			onPass.run();
+		}
+	}
+	
+	/**
+	 * Merges the histograms the threads tallied during the last pass into the frame's, and works out from it how bright each
+	 * continuous count is to be drawn. The threads' histograms are emptied for the next pass.
+	 * @return how far along the shades each whole continuous count is, from 0 to 1, with one more entry at the end for the limit.
+	 */
+	private float[] equalise() {
+		synchronized (tallies) {
+			for (Tally partial : tallies) {
+				partial.drainInto(histogram);
+			}
+		}
+		
+		// Each count starts where the share of samples with fewer iterations leaves off.
+		long total = 0;
+		for (int n = 0; n < histogram.length; n++) {
+			total += histogram[n];
+		}
+		float[] shades = new float[histogram.length + 1];
+		long below = 0;
+		for (int n = 0; n < histogram.length; n++) {
+			shades[n] = total == 0 ? 0 : (float) below / total;
+			below += histogram[n];
+		}
+		shades[histogram.length] = 1;
+		return shades;
+	}
+	
+	/**
+	 * Lines up the iterations left over from the last frame with a new one. If the new frame lies on the same grid, whatever
+	 * the two share is moved to its new position, leaving only the newly exposed pixels unknown. Otherwise, every pixel is.
+	 * Iterations guessed by subdivision are never passed on to a frame which computes every pixel.
+	 * <p>
+	 * A frame with a higher limit marks the pixels which hadn't escaped to be carried on with. One with a lower limit on the
+	 * same view keeps the depth of the last, as it has no new pixels to follow that far. Any other is followed to its own
+	 * limit, so the pixels it shares are cut back to it.
+	 * @param frame the frame about to be rendered.
+	 */
+	private void reuse(Frame frame) {
+		Viewport old = countsView;
+		int stoppedAt = countsLimit;
+		boolean sameGrid = frame.view.sharesGrid(old) && (frame.subdividing || !countsGuessed);
+		boolean sameView = sameGrid && frame.view.getX().equals(old.getX()) && frame.view.getY().equals(old.getY());
+		frame.depth = sameView ? Math.max(frame.limit, countsLimit) : frame.limit;
+		countsView = frame.view;
+		countsLimit = frame.depth;
+		countsGuessed = frame.subdividing;
+		if (!sameGrid) {
+			Arrays.fill(counts, UNKNOWN);
+			return;
+		}
+		
+		// Perturbation keeps each pixel's offset from the last frame's reference orbit, which lies at the middle of its view.
+		// Once the view moves, the orbit is worked out somewhere else, so none of them can be carried on with.
+		if (!sameView && frame.view.getScale() < DEEP_SCALE) {
+			Arrays.fill(lastReal, Double.NaN);
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] <= STOPPED)
+					counts[i] = UNKNOWN;
+			}
+		}
+		
+		// Every pixel which hasn't escaped ran out the last depth. Those whose z wasn't kept have to start over.
+		if (frame.depth > stoppedAt) {
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == stoppedAt)
+					counts[i] = Double.isNaN(lastReal[i]) ? UNKNOWN : STOPPED - stoppedAt;
+			}
+		}
+		
+		// Pixels followed past the new depth are cut back to it, as if they had run it out, and so are those part way through
+		// a raise which had already got that far. Their z was left further on, so they have to start over if the limit is
+		// raised again.
+		if (frame.depth < stoppedAt) {
+			for (int i = 0; i < counts.length; i++) {
+				if ((counts[i] >= frame.depth && counts[i] != INTERIOR) || (counts[i] <= STOPPED && STOPPED - counts[i] >= frame.depth)) {
+					counts[i] = frame.depth;
+					fractions[i] = 0;
+					lastReal[i] = Double.NaN;
+				}
+			}
+		}
+		if (sameView)
+			return;
+		
+		// Pixel (x, y) of the new frame was pixel (x + dx, y + dy) of the old one.
+		BigInteger dx = frame.view.getX().subtract(old.getX());
+		BigInteger dy = frame.view.getY().subtract(old.getY());
+		Arrays.fill(spare, UNKNOWN);
+		if (dx.abs().compareTo(BigInteger.valueOf(width)) < 0 && dy.abs().compareTo(BigInteger.valueOf(height)) < 0)
+			shift(dx.intValue(), dy.intValue());
+		int[] temp = counts;
+		counts = spare;
+		spare = temp;
+		float[] tempFractions = fractions;
+		fractions = spareFractions;
+		spareFractions = tempFractions;
+		double[] tempReal = lastReal;
+		lastReal = spareReal;
+		spareReal = tempReal;
+		double[] tempImag = lastImag;
+		lastImag = spareImag;
+		spareImag = tempImag;
+		temp = lastSteps;
+		lastSteps = spareSteps;
+		spareSteps = temp;
+	}
+	
+	/**
+	 * Moves the iterations, fractions and last z left over from the last frame into the spare buffers, at their place in the
+	 * new frame.
+	 * @param dx the number of pixels the new frame lies to the right of the old one.
+	 * @param dy the number of pixels the new frame lies below the old one.
+	 */
+	private void shift(int dx, int dy) {
+		int length = width - Math.abs(dx);
+		for (int y = Math.max(0, -dy); y < Math.min(height, height - dy); y++) {
+			int from = (y + dy) * width + Math.max(0, dx);
+			int to = y * width + Math.max(0, -dx);
+			System.arraycopy(counts, from, spare, to, length);
+			System.arraycopy(fractions, from, spareFractions, to, length);
+			System.arraycopy(lastReal, from, spareReal, to, length);
+			System.arraycopy(lastImag, from, spareImag, to, length);
+			System.arraycopy(lastSteps, from, spareSteps, to, length);
+		}
+	}
+	
+	/**
+	 * Tells whether a frame has been overtaken by a newer one.
+	 * @param frame the frame in question.
+	 * @return <code>true</code> if the frame should be abandoned.
+	 */
+	private boolean isStale(Frame frame) {
+		return frame.generation != generation.get();
+	}
+	
+	/**
+	 * Takes in a point on the complex plane and calculates the number of iterations of the Mandelbrot Rule.
+	 * Works entirely on primitive values, so nothing is allocated per point.
+	 * <p>
+	 * Points which never escape are the costliest, as they run all the way to the limit, so we try to spot them early.
+	 * The main cardioid and the period-2 bulb are ruled out by testing the point against their equations. For anything
+	 * else, z is saved every so often (at doubling intervals, as in Brent's method) and compared against on every
+	 * iteration; once z comes back exactly to a saved value, the orbit is caught in a cycle and will never escape. Since
+	 * the comparison is exact, the counts returned are the same as running every iteration.
+	 * @param cReal the real component of the point, which is added to z on every iteration.
+	 * @param cImag the imaginary component of the point.
+	 * @param limit the maximum number of iterations to perform.
+	 * @return an integer, the number of iterations of the Mandelbrot Rule before we leave a circle of radius 2.
+	 */
+	static int doIterations(double cReal, double cImag, int limit) {
+		return doIterations(cReal, cImag, limit, null, 0);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a point, as {@link #doIterations(double, double, int)}
+	 * does, along with how far past them the point got before escaping.
+	 * @param cReal the real component of the point, which is added to z on every iteration.
+	 * @param cImag the imaginary component of the point.
+	 * @param limit the maximum number of iterations to perform.
+	 * @param fractions receives the fraction of an iteration the point got past the ones counted, as worked out by
+	 *        {@link #escapeFraction(double, double, double, double)}, or 0 if it never escapes. May be null.
+	 * @param index the index in fractions to store it at.
+	 * @return an integer, the number of iterations of the Mandelbrot Rule before we leave a circle of radius 2.
+	 */
+	static int doIterations(double cReal, double cImag, int limit, float[] fractions, int index) {
+		return doIterations(cReal, cImag, 0, limit, fractions, null, null, index);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a point, as
+	 * {@link #doIterations(double, double, int, float[], int)} does, carrying on from where an earlier call with a lower
+	 * limit left it if need be. The counts returned are the same as if the higher limit had been given to begin with.
+	 * @param cReal the real component of the point, which is added to z on every iteration.
+	 * @param cImag the imaginary component of the point.
+	 * @param start the number of iterations the point has already run without escaping, or 0 to start from the origin.
+	 * @param limit the maximum number of iterations to perform, more than start.
+	 * @param fractions receives the fraction of an iteration the point got past the ones counted, or 0 if it never
+	 *        escapes. May be null.
+	 * @param lastReal holds the real component of z after the iterations already run, and receives it once the point runs
+	 *        out the limit or is found never to escape. May be null if start is 0.
+	 * @param lastImag the same for the imaginary component of z.
+	 * @param index the index in fractions, lastReal and lastImag of the point.
+	 * @return an integer, the number of iterations of the Mandelbrot Rule before we leave a circle of radius 2.
+	 */
+	static int doIterations(double cReal, double cImag, int start, int limit, float[] fractions, double[] lastReal, double[] lastImag, int index) {
+		if (fractions != null)
+			fractions[index] = 0;
+		
+		// Start z at the origin, or wherever the point was left, and set the counter. Points in the main cardioid or the
+		// period-2 bulb never escape, so they go straight to the limit.
+		double zReal = start > 0 ? lastReal[index] : 0;
+		double zImag = start > 0 ? lastImag[index] : 0;
+		double zReal2 = zReal * zReal;													// The square of zReal, kept for the next iteration.
+		double zImag2 = zImag * zImag;													// The square of zImag, kept for the next iteration.
+		int counter = isInBody(cReal, cImag) ? limit : start;
+		double savedReal = 0;															// The value of z we're watching for the orbit to come back to.
+		double savedImag = 0;
+		int period = 1;																	// The number of iterations until z is saved again.
+		int sinceSaved = 0;																// The number of iterations since z was saved.
+		
+		// As long as z doesn't cross the circle of radius 2, we keep squaring it and adding c to it.
+		// Comparing the squared modulus against 4 saves us a square root each time.
+		while (zReal2 + zImag2 <= 4.0 && counter < limit) {
+			zImag = 2 * zReal * zImag + cImag;
+			zReal = zReal2 - zImag2 + cReal;
+			zReal2 = zReal * zReal;
+			zImag2 = zImag * zImag;
+			counter++;
+			
+			// Back where we were: the orbit repeats from here on, so the point would run out the limit.
+			if (zReal == savedReal && zImag == savedImag) {
+				counter = limit;
+				break;
+			}
+			if (++sinceSaved == period) {
+				savedReal = zReal;
+				savedImag = zImag;
+				sinceSaved = 0;
+				period <<= 1;
+			}
+		}
+		if (fractions != null && counter < limit)
+			fractions[index] = escapeFraction(zReal, zImag, cReal, cImag);
+		if (lastReal != null && counter == limit) {
+			lastReal[index] = zReal;
+			lastImag[index] = zImag;
+		}
+		// We'll return the counter value which last met the Mandelbrot Rule.
+		return counter;
+	}
+	
+	/**
+	 * Works out how far past its last whole iteration an escaping point got, so that colors can change smoothly from one
+	 * number of iterations to the next rather than in bands. Once a point escapes, each iteration roughly squares |z|, so
+	 * n - log<sub>2</sub>(log<sub>2</sub> |z|) hardly changes from one iteration to the next. The point is iterated on
+	 * until it is well clear of the circle, where that holds closely, and the continuous count is read off there.
+	 * @param zReal the real component of z as it first left the circle of radius 2.
+	 * @param zImag the imaginary component of z.
+	 * @param cReal the real component of the point.
+	 * @param cImag the imaginary component of the point.
+	 * @return the fraction to add to the iterations, mostly from 0 to 1 though it can stray a little either side. It
+	 *         changes smoothly with c, even where the iterations step from one value to the next.
+	 */
+	static float escapeFraction(double zReal, double zImag, double cReal, double cImag) {
+		double zReal2 = zReal * zReal;
+		double zImag2 = zImag * zImag;
+		int extra = 0;																	// The number of iterations past the circle of radius 2.
+		while (zReal2 + zImag2 <= SMOOTH_RADIUS * SMOOTH_RADIUS) {
+			zImag = 2 * zReal * zImag + cImag;
+			zReal = zReal2 - zImag2 + cReal;
+			zReal2 = zReal * zReal;
+			zImag2 = zImag * zImag;
+			extra++;
+		}
+		// log2 |z| is half of log2 |z|^2.
+		return (float) (extra + 2 - log2(log2(zReal2 + zImag2)));
+	}
+	
+	/**
+	 * Approximates the base 2 logarithm of a number, to within about 0.0002, several times faster than working it out
+	 * properly. The exponent of the double gives the whole part, and a quartic in the mantissa the rest.
+	 * @param x a positive, finite number.
+	 * @return the base 2 logarithm of x.
+	 */
+	private static double log2(double x) {
+		long bits = Double.doubleToRawLongBits(x);
+		double t = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L) - 1;
+		return ((bits >>> 52) - 1023) + t * (1.4380732 + t * (-0.6747667 + t * (0.3170007 + t * -0.0803073)));
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a run of points sharing an imaginary component, giving
+	 * the same counts as {@link #doIterations(double, double, int)} would one point at a time. Each iteration of a single
+	 * point has to wait for the one before it to finish, leaving most of the processor idle, so four points are iterated
+	 * side by side instead, in lanes whose steps don't depend on each other. A lane whose point is done takes the next one.
+	 * <p>
+	 * Each lane watches for cycles the same way as the single-point version, though it saves z at different iterations:
+	 * an orbit coming back exactly to an earlier value never escapes, whichever value it was.
+	 * @param cReal the real component of each point.
+	 * @param cImag the imaginary component shared by every point.
+	 * @param counts receives the number of iterations of each point.
+	 * @param count the number of points.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 */
+	static void doIterations(double[] cReal, double cImag, int[] counts, int count, int limit) {
+		doIterations(cReal, cImag, counts, null, count, limit);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a run of points sharing an imaginary component, as
+	 * {@link #doIterations(double[], double, int[], int, int)} does, along with how far past them each point got.
+	 * @param cReal the real component of each point.
+	 * @param cImag the imaginary component shared by every point.
+	 * @param counts receives the number of iterations of each point.
+	 * @param fractions receives the fraction of an iteration each point got past the ones counted, as worked out by
+	 *        {@link #escapeFraction(double, double, double, double)}, or 0 if it never escapes. May be null.
+	 * @param count the number of points.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 */
+	static void doIterations(double[] cReal, double cImag, int[] counts, float[] fractions, int count, int limit) {
+		doIterations(cReal, cImag, counts, fractions, null, null, count, limit);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a run of points sharing an imaginary component, as
+	 * {@link #doIterations(double[], double, int[], float[], int, int)} does, carrying on with each point from where an
+	 * earlier call with a lower limit left it if need be.
+	 * <p>
+	 * Lanes step before they check, so a point which left the circle on the very iteration it ran out the limit can't be
+	 * carried on with; its z is given as NaN, for it to be started over.
+	 * @param cReal the real component of each point.
+	 * @param cImag the imaginary component shared by every point.
+	 * @param counts holds the number of iterations each point has already run without escaping, less than the limit, or
+	 *        0 to start it from the origin, and receives the number of iterations of each point.
+	 * @param fractions receives the fraction of an iteration each point got past the ones counted, or 0 if it never
+	 *        escapes. May be null.
+	 * @param lastReal holds the real component of z for each point after the iterations already run, and receives it for
+	 *        each point which runs out the limit or is found never to escape. May be null if every point starts at 0.
+	 * @param lastImag the same for the imaginary component of z.
+	 * @param count the number of points.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 */
+	static void doIterations(double[] cReal, double cImag, int[] counts, float[] fractions, double[] lastReal, double[] lastImag, int count, int limit) {
+		// Each lane k holds the index of its point (or -1 once the points run out), its iterations n, its point c, z and
+		// the squares of z's components, and the last value of z saved for spotting cycles. What a lane does with a point
+		// it is done with is left to finish, so that only the steps themselves are written out once per lane.
+		int pixel0 = -1, n0 = 0;
+		double c0 = 0, zr0 = 0, zi0 = 0, zrr0 = 0, zii0 = 0, sr0 = 0, si0 = 0;
+		int pixel1 = -1, n1 = 0;
+		double c1 = 0, zr1 = 0, zi1 = 0, zrr1 = 0, zii1 = 0, sr1 = 0, si1 = 0;
+		int pixel2 = -1, n2 = 0;
+		double c2 = 0, zr2 = 0, zi2 = 0, zrr2 = 0, zii2 = 0, sr2 = 0, si2 = 0;
+		int pixel3 = -1, n3 = 0;
+		double c3 = 0, zr3 = 0, zi3 = 0, zrr3 = 0, zii3 = 0, sr3 = 0, si3 = 0;
+		int next = 0;																	// The index of the next point to hand out.
+		
+		// Lanes only notice they're done after an iteration, so a limit that low is left to the single-point version.
+		if (limit < 1) {
+			for (int k = 0; k < count; k++) {
+				counts[k] = doIterations(cReal[k], cImag, lastReal == null ? 0 : counts[k], limit, fractions, lastReal, lastImag, k);
+			}
+			return;
+		}
+		
+		// Give every lane its first point.
+		next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+		pixel0 = next < count ? next++ : -1;
+		c0 = pixel0 >= 0 ? cReal[pixel0] : 0;
+		n0 = resumed(pixel0, counts, lastReal);
+		zr0 = resumedFrom(lastReal, pixel0, n0);
+		zi0 = resumedFrom(lastImag, pixel0, n0);
+		zrr0 = zr0 * zr0;
+		zii0 = zi0 * zi0;
+		next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+		pixel1 = next < count ? next++ : -1;
+		c1 = pixel1 >= 0 ? cReal[pixel1] : 0;
+		n1 = resumed(pixel1, counts, lastReal);
+		zr1 = resumedFrom(lastReal, pixel1, n1);
+		zi1 = resumedFrom(lastImag, pixel1, n1);
+		zrr1 = zr1 * zr1;
+		zii1 = zi1 * zi1;
+		next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+		pixel2 = next < count ? next++ : -1;
+		c2 = pixel2 >= 0 ? cReal[pixel2] : 0;
+		n2 = resumed(pixel2, counts, lastReal);
+		zr2 = resumedFrom(lastReal, pixel2, n2);
+		zi2 = resumedFrom(lastImag, pixel2, n2);
+		zrr2 = zr2 * zr2;
+		zii2 = zi2 * zi2;
+		next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+		pixel3 = next < count ? next++ : -1;
+		c3 = pixel3 >= 0 ? cReal[pixel3] : 0;
+		n3 = resumed(pixel3, counts, lastReal);
+		zr3 = resumedFrom(lastReal, pixel3, n3);
+		zi3 = resumedFrom(lastImag, pixel3, n3);
+		zrr3 = zr3 * zr3;
+		zii3 = zi3 * zi3;
+		while (true) {
+			// Step every lane at once, then deal with the lanes whose points are done.
+			zi0 = 2 * zr0 * zi0 + cImag;
+			zr0 = zrr0 - zii0 + c0;
+			zrr0 = zr0 * zr0;
+			zii0 = zi0 * zi0;
+			n0++;
+			zi1 = 2 * zr1 * zi1 + cImag;
+			zr1 = zrr1 - zii1 + c1;
+			zrr1 = zr1 * zr1;
+			zii1 = zi1 * zi1;
+			n1++;
+			zi2 = 2 * zr2 * zi2 + cImag;
+			zr2 = zrr2 - zii2 + c2;
+			zrr2 = zr2 * zr2;
+			zii2 = zi2 * zi2;
+			n2++;
+			zi3 = 2 * zr3 * zi3 + cImag;
+			zr3 = zrr3 - zii3 + c3;
+			zrr3 = zr3 * zr3;
+			zii3 = zi3 * zi3;
+			n3++;
+			
+			// A lane which is done hands its point back and takes the next one, picking it up where it was left if need be.
+			if (zrr0 + zii0 > 4.0 || n0 == limit || (zr0 == sr0 && zi0 == si0)) {
+				finish(pixel0, n0, c0, cImag, zr0, zi0, counts, fractions, lastReal, lastImag, limit);
+				next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+				pixel0 = next < count ? next++ : -1;
+				c0 = pixel0 >= 0 ? cReal[pixel0] : 0;
+				n0 = resumed(pixel0, counts, lastReal);
+				zr0 = resumedFrom(lastReal, pixel0, n0);
+				zi0 = resumedFrom(lastImag, pixel0, n0);
+				zrr0 = zr0 * zr0;
+				zii0 = zi0 * zi0;
+				sr0 = si0 = 0;
+			} else if ((n0 & (n0 - 1)) == 0) {
+				sr0 = zr0;
+				si0 = zi0;
+			}
+			if (zrr1 + zii1 > 4.0 || n1 == limit || (zr1 == sr1 && zi1 == si1)) {
+				finish(pixel1, n1, c1, cImag, zr1, zi1, counts, fractions, lastReal, lastImag, limit);
+				next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+				pixel1 = next < count ? next++ : -1;
+				c1 = pixel1 >= 0 ? cReal[pixel1] : 0;
+				n1 = resumed(pixel1, counts, lastReal);
+				zr1 = resumedFrom(lastReal, pixel1, n1);
+				zi1 = resumedFrom(lastImag, pixel1, n1);
+				zrr1 = zr1 * zr1;
+				zii1 = zi1 * zi1;
+				sr1 = si1 = 0;
+			} else if ((n1 & (n1 - 1)) == 0) {
+				sr1 = zr1;
+				si1 = zi1;
+			}
+			if (zrr2 + zii2 > 4.0 || n2 == limit || (zr2 == sr2 && zi2 == si2)) {
+				finish(pixel2, n2, c2, cImag, zr2, zi2, counts, fractions, lastReal, lastImag, limit);
+				next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+				pixel2 = next < count ? next++ : -1;
+				c2 = pixel2 >= 0 ? cReal[pixel2] : 0;
+				n2 = resumed(pixel2, counts, lastReal);
+				zr2 = resumedFrom(lastReal, pixel2, n2);
+				zi2 = resumedFrom(lastImag, pixel2, n2);
+				zrr2 = zr2 * zr2;
+				zii2 = zi2 * zi2;
+				sr2 = si2 = 0;
+			} else if ((n2 & (n2 - 1)) == 0) {
+				sr2 = zr2;
+				si2 = zi2;
+			}
+			if (zrr3 + zii3 > 4.0 || n3 == limit || (zr3 == sr3 && zi3 == si3)) {
+				finish(pixel3, n3, c3, cImag, zr3, zi3, counts, fractions, lastReal, lastImag, limit);
+				next = skipBody(cReal, cImag, counts, fractions, next, count, limit);
+				pixel3 = next < count ? next++ : -1;
+				c3 = pixel3 >= 0 ? cReal[pixel3] : 0;
+				n3 = resumed(pixel3, counts, lastReal);
+				zr3 = resumedFrom(lastReal, pixel3, n3);
+				zi3 = resumedFrom(lastImag, pixel3, n3);
+				zrr3 = zr3 * zr3;
+				zii3 = zi3 * zi3;
+				sr3 = si3 = 0;
+			} else if ((n3 & (n3 - 1)) == 0) {
+				sr3 = zr3;
+				si3 = zi3;
+			}
+			if (pixel0 < 0 && pixel1 < 0 && pixel2 < 0 && pixel3 < 0 && next >= count)
+				return;
+		}
+	}
+	
+	/**
+	 * Hands back the result of a point a lane of the batch version of doIterations is done with.
+	 * @param pixel the index of the point, or -1 if the lane had none.
+	 * @param n the iterations the lane ran for the point.
+	 * @param c the real component of the point.
+	 * @param cImag the imaginary component of the point.
+	 * @param zReal the real component of z after the last iteration.
+	 * @param zImag the imaginary component of z after the last iteration.
+	 * @param counts receives the number of iterations of the point.
+	 * @param fractions receives the fraction of an iteration the point got past the ones counted, or null.
+	 * @param lastReal receives the real component of z if the point runs out the limit, or null if z isn't being kept.
+	 * @param lastImag receives the imaginary component of z, likewise.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 */
+	private static void finish(int pixel, int n, double c, double cImag, double zReal, double zImag, int[] counts, float[] fractions, double[] lastReal, double[] lastImag, int limit) {
+		if (pixel < 0)
+			return;
+		boolean escaped = zReal * zReal + zImag * zImag > 4.0;
+		counts[pixel] = escaped ? n : limit;
+		if (fractions != null)
+			fractions[pixel] = escaped ? escapeFraction(zReal, zImag, c, cImag) : 0;
+		if (lastReal != null && counts[pixel] == limit) {
+			lastReal[pixel] = escaped ? Double.NaN : zReal;
+			lastImag[pixel] = zImag;
+		}
+	}
+	
+	/**
+	 * Returns the iterations a point handed to a lane of the batch version of doIterations has already run.
+	 * @param pixel the index of the point, or -1 if there is none.
+	 * @param counts holds the iterations each point has already run.
+	 * @param lastReal holds the real component of z for each point, or null if every point starts at the origin.
+	 * @return the number of iterations to carry on from, or 0 to start from the origin.
+	 */
+	private static int resumed(int pixel, int[] counts, double[] lastReal) {
+		return pixel >= 0 && lastReal != null ? counts[pixel] : 0;
+	}
+	
+	/**
+	 * Returns a component of the z a point handed to a lane of the batch version of doIterations starts from.
+	 * @param last holds that component of z for each point, or null if every point starts at the origin.
+	 * @param pixel the index of the point, or -1 if there is none.
+	 * @param n the iterations the point has already run, as given by resumed.
+	 * @return the component of z to carry on from, or 0 to start from the origin.
+	 */
+	private static double resumedFrom(double[] last, int pixel, int n) {
+		return n > 0 ? last[pixel] : 0;
+	}
+	
+	/**
+	 * Fills in the points in the main cardioid or the period-2 bulb from a run of points, up to the first one which isn't.
+	 * Their z, if it is being kept, is left as it was.
+	 * @param cReal the real component of each point.
+	 * @param cImag the imaginary component shared by every point.
+	 * @param counts receives the number of iterations of each point.
+	 * @param fractions receives a fraction of 0 for each point filled in, or null.
+	 * @param from the index of the first point to look at.
+	 * @param count the number of points.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 * @return the index of the first point which still has to be iterated, or the number of points if there is none.
+	 */
+	private static int skipBody(double[] cReal, double cImag, int[] counts, float[] fractions, int from, int count, int limit) {
+		while (from < count && isInBody(cReal[from], cImag)) {
+			if (fractions != null)
+				fractions[from] = 0;
+			counts[from++] = limit;
+		}
+		return from;
+	}
+	
+	/**
+	 * Tells whether a point lies in the main cardioid or the period-2 bulb, which never escape.
+	 * @param cReal the real component of the point.
+	 * @param cImag the imaginary component of the point.
+	 * @return <code>true</code> if the point is in either.
+	 */
+	private static boolean isInBody(double cReal, double cImag) {
+		double cImag2 = cImag * cImag;
+		double shifted = cReal - 0.25;
+		double q = shifted * shifted + cImag2;
+		return q * (q + shifted) <= 0.25 * cImag2 || (cReal + 1) * (cReal + 1) + cImag2 <= 0.0625;
+	}
+	
+	/**
+	 * Tells whether two neighbouring samples are far enough apart to make a visible edge. The further out a sample runs, the
+	 * more its neighbours' iterations drift from its own without any edge between them, so the difference allowed grows
+	 * with the iterations.
+	 * @param n the iterations of one sample.
+	 * @param m the iterations of the other.
+	 * @return <code>true</code> if the samples lie on either side of an edge.
+	 */
+	private static boolean isEdge(int n, int m) {
+		return Math.abs(n - m) > Math.max(EDGE_THRESHOLD, Math.min(n, m) / EDGE_RATIO);
+	}
+	
+	/**
+	 * Picks an offset within a pixel which looks random, but is always the same for the same arguments.
+	 * @param x the column of the pixel on the plane's grid, or any part of it.
+	 * @param y the row of the pixel on the plane's grid, or any part of it.
+	 * @param sample which of the pixel's offsets to pick.
+	 * @return a number from 0 (inclusive) to 1 (exclusive).
+	 */
+	private static double jitter(long x, long y, int sample) {
+		// Scramble the bits, as SplittableRandom does, so that neighbouring pixels get unrelated offsets.
+		long bits = x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + sample * 0x165667B19E3779F9L;
+		bits = (bits ^ (bits >>> 30)) * 0xBF58476D1CE4E5B9L;
+		bits = (bits ^ (bits >>> 27)) * 0x94D049BB133111EBL;
+		bits ^= bits >>> 31;
+		return (bits >>> 11) * 0x1.0p-53;
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Everything the tiles of one frame share.
+	 */
+	private static class Frame {
+		final int[] data;																// The pixels of the image being drawn into.
+		final int scanline;																// The distance in data from one row of the image to the next.
+		final Viewport view;															// The view of the plane being drawn.
+		final int limit;																// The maximum number of iterations for each point. Any past it are drawn as part of the set.
+		final int[] palette;															// The color of each number of iterations.
+		final int generation;															// The number this frame was given when it was asked for.
+		final boolean subdividing;														// Whether the tiles are filled in by subdivision.
+		final boolean antialiasing;														// Whether the frame ends with a pass smoothing its edges.
+		final long gridX;																// The column of the top-left pixel on the plane's grid, cut down to a long.
+		final long gridY;																// The row of the top-left pixel on the plane's grid, cut down to a long.
+		final BigInteger tileX;															// The column, on the level's grid of tiles, of the tile holding the top-left pixel.
+		final BigInteger tileY;															// The row, on the level's grid of tiles, of the tile holding the top-left pixel.
+		final int left;																	// The column of the frame where that tile starts, zero or less.
+		final int top;																	// The row of the frame where that tile starts, zero or less.
+		final int columns;																// The number of tiles across the frame.
+		final int rows;																	// The number of tiles down the frame.
+		int depth;																		// The number of iterations each pixel is followed for, more than the limit if the same view was followed further.
+		ReferenceOrbit orbit;															// The orbit the pixels are computed around, or null if doubles are fine enough.
+		float[] shades;																	// How far along the palette each whole continuous count is, as of the last pass.
+		
+		Frame(WritableRaster raster, Viewport view, int limit, int[] palette, int generation, boolean subdividing, boolean antialiasing,
+				int width, int height) {
+			data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			this.view = view;
+			this.limit = limit;
+			this.palette = palette;
+			this.generation = generation;
+			this.subdividing = subdividing;
+			this.antialiasing = antialiasing;
+			gridX = view.getX().longValue();
+			gridY = view.getY().longValue();
+			BigInteger size = BigInteger.valueOf(TILE_SIZE);
+			BigInteger[] across = view.getX().divideAndRemainder(size);
+			BigInteger[] down = view.getY().divideAndRemainder(size);
+			
+			// Round towards negative infinity, so the tiles sit the same way either side of the grid's origin.
+			left = -Math.floorMod(across[1].intValue(), TILE_SIZE);
+			top = -Math.floorMod(down[1].intValue(), TILE_SIZE);
+			tileX = across[1].signum() < 0 ? across[0].subtract(BigInteger.ONE) : across[0];
+			tileY = down[1].signum() < 0 ? down[0].subtract(BigInteger.ONE) : down[0];
+			columns = (width - left + TILE_SIZE - 1) / TILE_SIZE;
+			rows = (height - top + TILE_SIZE - 1) / TILE_SIZE;
+		}
+		
+		/**
+		 * Works out the color of a sample from its continuous count, its shade lying between those of the counts either side.
+		 * @param n the iterations of the sample.
+		 * @param fraction the fraction of an iteration it got past them.
+		 * @return the packed 0xRRGGBB color of the sample.
+		 */
+		int color(int n, float fraction) {
+			if (n >= limit)
+				return palette[palette.length - 1];
+			double count = Math.max(0, Math.min(limit, n + fraction));
+			int whole = Math.min((int) count, limit - 1);
+			double shade = shades[whole] + (count - whole) * (shades[whole + 1] - shades[whole]);
+			return palette[(int) (shade * (palette.length - 2))];
+		}
+	}
+	
+	/**
+	 * A task running one stage of a pass over a range of the frame's tiles, numbered row by row. It splits itself in half until it holds a single
+	 * tile, so that idle threads can steal whichever half is left waiting.
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;								// Never serialized, but ForkJoinTask is Serializable.
+		private Frame frame;															// The frame being rendered.
+		private int stage;																// What is done to each tile: SAMPLE, COLOR or SMOOTH.
+		private int step;																// The distance, in pixels, between the samples of this pass.
+		private int start;																// The first tile covered by this task.
+		private int end;																// The tile after the last tile covered by this task.
+		
+		/**
+		 * Creates a task covering a range of tiles.
+		 * @param frame the frame being rendered.
+		 * @param stage what is done to each tile: SAMPLE, COLOR or SMOOTH.
+		 * @param step the distance, in pixels, between the samples of this pass.
+		 * @param start the first tile covered.
+		 * @param end the tile after the last tile covered.
+		 */
+		TileTask(Frame frame, int stage, int step, int start, int end) {
+			this.frame = frame;
+			this.stage = stage;
+			this.step = step;
+			this.start = start;
+			this.end = end;
+		}
+		
+		protected void compute() {
+			if (isStale(frame) || (end - start == 1 && finished[start] && stage == SAMPLE))
+				return;
+			if (end - start > 1) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new TileTask(frame, stage, step, start, middle), new TileTask(frame, stage, step, middle, end));
+				return;
+			}
+			
+			// Work out which part of the frame this tile covers, clipping it at the edges.
+			BigInteger tileX = frame.tileX.add(BigInteger.valueOf(start % frame.columns));
+			BigInteger tileY = frame.tileY.add(BigInteger.valueOf(start / frame.columns));
+			int left = frame.left + (start % frame.columns) * TILE_SIZE;
+			int top = frame.top + (start / frame.columns) * TILE_SIZE;
+			int x0 = Math.max(0, left);
+			int y0 = Math.max(0, top);
+			int w = Math.min(left + TILE_SIZE, width) - x0;
+			int h = Math.min(top + TILE_SIZE, height) - y0;
+			if (stage == COLOR) {
+				color(x0, y0, w, h);
+				return;
+			}
+			if (stage == SMOOTH) {
+				smoothEdges(x0, y0, w, h);
+				return;
+			}
+			
+			// Before computing anything, see whether an earlier frame left this tile in the cache.
+			if (step == COARSEST_STEP && cache.read(frame.view, tileX, tileY, frame.depth, x0 - left, y0 - top, w, h, counts, fractions, y0 * width + x0, width)) {
+				// The cache doesn't keep z, so these pixels will have to start over if the limit is raised.
+				for (int y = y0; y < y0 + h; y++) {
+					Arrays.fill(lastReal, y * width + x0, y * width + x0 + w, Double.NaN);
+				}
+			}
+			
+			// Fill in this pass's samples. Those already taken by a coarser pass are kept. When subdividing, the first pass
+			// settles every pixel of the tile.
+			if (frame.subdividing && step == COARSEST_STEP) {
+				subdivide(x0, y0, w, h);
+				if (isStale(frame))
+					return;
+			}
+			for (int y = 0; y < h; y += step) {
+				if (isStale(frame))
+					return;
+				if (frame.orbit != null) {
+					for (int x = 0; x < w; x += step) {
+						sample(x0 + x, y0 + y);
+					}
+				} else {
+					sampleRow(x0, y0 + y, w, step);
+				}
+			}
+			
+			boolean complete = true;
+			for (int y = 0; y < h && complete; y++) {
+				for (int i = (y0 + y) * width + x0, last = i + w; i < last; i++) {
+					complete &= counts[i] >= 0;
+				}
+			}
+			tally(x0, y0, w, h, complete);
+			
+			// A tile with every pixel known needs nothing from the finer passes. If it is whole and computed exactly, keep
+			// it for later frames.
+			finished[start] = complete;
+			if (complete && !frame.subdividing && w == TILE_SIZE && h == TILE_SIZE)
+				cache.write(frame.view, tileX, tileY, frame.depth, counts, fractions, y0 * width + x0, width);
+		}
+		
+		/**
+		 * Adds the samples this pass brings to the frame into the thread's histogram, so that each pixel is tallied once per
+		 * frame: those on this pass's grid which weren't on the last one's, and, if the tile won't be visited again, every
+		 * one left over for the finer passes as well.
+		 * @param x0 the left-most column of the tile.
+		 * @param y0 the top-most row of the tile.
+		 * @param w the width, in pixels, of the tile.
+		 * @param h the height, in pixels, of the tile.
+		 * @param complete whether every pixel of the tile is known.
+		 */
+		private void tally(int x0, int y0, int w, int h, boolean complete) {
+			int[] bins = tally.get().bins(frame.limit);
+			int coarser = step == COARSEST_STEP ? 0 : 2 * step - 1;						// The samples with none of these bits set were tallied by earlier passes.
+			int own = complete ? 0 : step - 1;											// The samples with none of these bits set are this pass's.
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					if (((x | y) & own) != 0 || (coarser != 0 && ((x | y) & coarser) == 0))
+						continue;
+					int i = (y0 + y) * width + x0 + x;
+					int n = counts[i];
+					if (n < frame.limit)
+						bins[Math.max(0, Math.min(frame.limit - 1, (int) Math.floor(n + fractions[i])))]++;
+				}
+			}
+		}
+		
+		/**
+		 * Colors the whole tile straight into the image, from the histogram as of this pass. Pixels without a sample of
+		 * their own are copied from the pixel above them, or on the first row of their block, from its corner, so that
+		 * each color is only worked out once.
+		 * @param x0 the left-most column of the tile.
+		 * @param y0 the top-most row of the tile.
+		 * @param w the width, in pixels, of the tile.
+		 * @param h the height, in pixels, of the tile.
+		 */
+		private void color(int x0, int y0, int w, int h) {
+			for (int y = 0; y < h; y++) {
+				int row = (y0 + y) * frame.scanline + x0;
+				for (int x = 0; x < w; x++) {
+					int i = (y0 + y) * width + x0 + x;
+					if (counts[i] >= 0) {
+						frame.data[row + x] = frame.color(counts[i], fractions[i]);
+					} else if (((x | y) & (step - 1)) != 0) {
+						frame.data[row + x] = y % step == 0 ? frame.data[row + (x & -step)] : frame.data[row + x - frame.scanline];
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Draws every pixel of the tile which lies on an edge in the average color of a grid of jittered samples. A pixel is
+		 * on an edge when its iterations and those of one of its neighbours lie on either side of one.
+		 * <p>
+		 * One sample is taken in each quarter of the pixel first. Only if an edge runs between them as well is the rest of the
+		 * grid sampled; otherwise the four are enough.
+		 * @param x0 the left-most column of the tile.
+		 * @param y0 the top-most row of the tile.
+		 * @param w the width, in pixels, of the tile.
+		 * @param h the height, in pixels, of the tile.
+		 */
+		private void smoothEdges(int x0, int y0, int w, int h) {
+			EdgeRow edges = new EdgeRow();
+			for (int y = y0; y < y0 + h; y++) {
+				if (isStale(frame))
+					return;
+				
+				// Find the pixels of this row standing out from a neighbour.
+				edges.count = 0;
+				for (int x = x0; x < x0 + w; x++) {
+					int i = y * width + x;
+					int n = limited(i);
+					if ((x > 0 && isEdge(n, limited(i - 1))) || (x < width - 1 && isEdge(n, limited(i + 1)))
+							|| (y > 0 && isEdge(n, limited(i - width))) || (y < height - 1 && isEdge(n, limited(i + width))))
+						edges.add(x);
+				}
+				if (edges.count == 0)
+					continue;
+				
+				// A sample in each quarter, from the top-left cell of each block of four.
+				for (int gridRow = 0; gridRow < EDGE_GRID; gridRow += 2) {
+					sampleGrid(edges, y, gridRow, 0, 2);
+				}
+				int busy = 0;
+				for (int k = 0; k < edges.count; k++) {
+					if (isEdge(edges.lowest[k], edges.highest[k]))
+						edges.busy[busy++] = k;
+					else
+						edges.draw(frame, y, k, 4);
+				}
+				
+				// The rest of the grid, for the pixels which need it.
+				edges.count = busy;
+				for (int gridRow = 0; gridRow < EDGE_GRID; gridRow++) {
+					sampleGrid(edges, y, gridRow, gridRow % 2 == 0 ? 1 : 0, gridRow % 2 == 0 ? 2 : 1);
+				}
+				for (int k = 0; k < busy; k++) {
+					edges.draw(frame, y, edges.busy[k], EDGE_GRID * EDGE_GRID);
+				}
+			}
+		}
+		
+		/**
+		 * Samples some of the cells of one row of the grid of each pixel on an edge, adding the results to their totals. Each
+		 * row of the grid keeps the same offset down for every pixel, so that shallow frames can compute the row in one batch.
+		 * @param edges the pixels being smoothed. Only those listed in <code>busy</code> are sampled once it has been filled in.
+		 * @param y the row of the frame holding the pixels.
+		 * @param gridRow the row of the grid.
+		 * @param firstColumn the first column of the grid to sample.
+		 * @param columnStep the distance between the columns of the grid to sample.
+		 */
+		private void sampleGrid(EdgeRow edges, int y, int gridRow, int firstColumn, int columnStep) {
+			double row = y - 0.5 + (gridRow + jitter(0, frame.gridY + y, gridRow)) / EDGE_GRID;
+			int samples = 0;
+			for (int j = 0; j < edges.count; j++) {
+				int x = edges.x[edges.busy[j]];
+				for (int gridColumn = firstColumn; gridColumn < EDGE_GRID; gridColumn += columnStep) {
+					double column = x - 0.5 + (gridColumn + jitter(frame.gridX + x, frame.gridY + y, gridRow * EDGE_GRID + gridColumn)) / EDGE_GRID;
+					if (frame.orbit != null)
+						edges.found[samples] = frame.orbit.iterations(column, row, edges.fractions, samples);
+					else
+						edges.cReal[samples] = frame.view.real(column);
+					samples++;
+				}
+			}
+			if (frame.orbit == null)
+				doIterations(edges.cReal, frame.view.imag(row), edges.found, edges.fractions, samples, frame.limit);
+			samples = 0;
+			for (int j = 0; j < edges.count; j++) {
+				for (int gridColumn = firstColumn; gridColumn < EDGE_GRID; gridColumn += columnStep) {
+					// The orbit may run past the limit, if the frame is deeper than it.
+					int n = Math.min(edges.found[samples], frame.limit);
+					edges.take(edges.busy[j], n, frame.color(n, edges.fractions[samples]));
+					samples++;
+				}
+			}
+		}
+		
+		/**
+		 * Returns the iterations of a pixel as the frame's limit sees them, which may be fewer than it was followed for.
+		 * @param i the index of the pixel in counts.
+		 * @return the number of iterations of the pixel, up to the limit.
+		 */
+		private int limited(int i) {
+			return Math.min(counts[i], frame.limit);
+		}
+		
+		/**
+		 * Settles every pixel of a rectangle of the frame by Mariani-Silver subdivision. The border is computed first; if it
+		 * is uniform, the inside takes its iterations, and otherwise the rectangle is split into quarters.
+		 * @param x0 the left-most column of the rectangle.
+		 * @param y0 the top-most row of the rectangle.
+		 * @param w the width, in pixels, of the rectangle.
+		 * @param h the height, in pixels, of the rectangle.
+		 */
+		private void subdivide(int x0, int y0, int w, int h) {
+			if (isStale(frame))
+				return;
+			
+			// Run along the border, checking whether it all matches its first pixel.
+			int first = sample(x0, y0);
+			boolean uniform = true;
+			for (int x = 0; x < w; x++) {
+				uniform &= sample(x0 + x, y0) == first;
+				uniform &= sample(x0 + x, y0 + h - 1) == first;
+			}
+			for (int y = 1; y < h - 1; y++) {
+				uniform &= sample(x0, y0 + y) == first;
+				uniform &= sample(x0 + w - 1, y0 + y) == first;
+			}
+			if (w <= 2 || h <= 2)
+				return;
+			
+			// A uniform border fills the inside. The fractions still vary across it, so they're blended in from all four sides
+			// of the border, less the blend of its corners which that counts twice. Anything already known inside is kept.
+			// The pixels filled in have no z of their own to be carried on from.
+			if (uniform) {
+				int top = y0 * width + x0;
+				int bottom = (y0 + h - 1) * width + x0;
+				float topLeft = fractions[top], topRight = fractions[top + w - 1];
+				float bottomLeft = fractions[bottom], bottomRight = fractions[bottom + w - 1];
+				for (int y = 1; y < h - 1; y++) {
+					float v = y / (h - 1f);
+					float left = fractions[(y0 + y) * width + x0];
+					float right = fractions[(y0 + y) * width + x0 + w - 1];
+					for (int x = 1; x < w - 1; x++) {
+						int i = (y0 + y) * width + x0 + x;
+						if (counts[i] >= 0)
+							continue;
+						float u = x / (w - 1f);
+						counts[i] = first;
+						lastReal[i] = Double.NaN;
+						fractions[i] = (1 - u) * left + u * right + (1 - v) * fractions[top + x] + v * fractions[bottom + x]
+								- ((1 - u) * (1 - v) * topLeft + u * (1 - v) * topRight + (1 - u) * v * bottomLeft + u * v * bottomRight);
+					}
+				}
+				return;
+			}
+			int halfW = w / 2;
+			int halfH = h / 2;
+			subdivide(x0, y0, halfW, halfH);
+			subdivide(x0 + halfW, y0, w - halfW, halfH);
+			subdivide(x0, y0 + halfH, halfW, h - halfH);
+			subdivide(x0 + halfW, y0 + halfH, w - halfW, h - halfH);
+		}
+		
+		/**
+		 * Computes whichever samples along a row of the tile aren't known yet, all in one batch, carrying on with those an
+		 * earlier frame stopped short of the depth.
+		 * @param x0 the left-most column of the tile.
+		 * @param y the row.
+		 * @param w the width, in pixels, of the tile.
+		 * @param step the distance, in pixels, between the samples.
+		 */
+		private void sampleRow(int x0, int y, int w, int step) {
+			RowBuffers row = rowBuffers.get();
+			int[] found = row.found;
+			double[] foundReal = row.lastReal;
+			double[] foundImag = row.lastImag;
+			double imag = frame.view.imag(y);
+			int count = 0;
+			for (int x = 0; x < w; x += step) {
+				int i = y * width + x0 + x;
+				int n = counts[i];
+				if (n >= 0)
+					continue;
+				
+				// The set's main bodies need neither iterating nor their z kept.
+				double real = frame.view.real(x0 + x);
+				if (isInBody(real, imag)) {
+					counts[i] = INTERIOR;
+					fractions[i] = 0;
+					continue;
+				}
+				// Pick up where an earlier frame stopped, if it did. The z of a pixel starting afresh is never read.
+				found[count] = n == UNKNOWN ? 0 : STOPPED - n;
+				foundReal[count] = lastReal[i];
+				foundImag[count] = lastImag[i];
+				row.pixels[count] = i;
+				row.cReal[count++] = real;
+			}
+			doIterations(row.cReal, imag, found, row.fractions, foundReal, foundImag, count, frame.depth);
+			for (int k = 0; k < count; k++) {
+				int i = row.pixels[k];
+				counts[i] = found[k];
+				fractions[i] = row.fractions[k];
+				if (found[k] == frame.depth) {
+					lastReal[i] = foundReal[k];
+					lastImag[i] = foundImag[k];
+				}
+			}
+		}
+		
+		/**
+		 * Returns the iterations of a pixel, computing them if they aren't known yet, or carrying on with them if an earlier
+		 * frame stopped short of the depth.
+		 * @param x the column of the pixel.
+		 * @param y the row of the pixel.
+		 * @return the number of iterations of the pixel, up to the depth.
+		 */
+		private int sample(int x, int y) {
+			int i = y * width + x;
+			if (counts[i] < 0) {
+				int start = counts[i] == UNKNOWN ? 0 : STOPPED - counts[i];
+				if (frame.orbit != null) {
+					counts[i] = frame.orbit.iterations(x, y, start, fractions, lastReal, lastImag, lastSteps, i);
+				} else if (isInBody(frame.view.real(x), frame.view.imag(y))) {
+					counts[i] = INTERIOR;
+					fractions[i] = 0;
+				} else {
+					counts[i] = doIterations(frame.view.real(x), frame.view.imag(y), start, frame.depth, fractions, lastReal, lastImag, i);
+				}
+			}
+			return Math.min(counts[i], frame.depth);
+		}
+	}
+	
+	/**
+	 * The pixels on an edge in one row of a tile, and the samples taken of them so far.
+	 */
+	private static class EdgeRow {
+		final int[] x = new int[TILE_SIZE];												// The column of each pixel.
+		final int[] busy = new int[TILE_SIZE];											// The index of each pixel still being sampled, in order.
+		final int[] red = new int[TILE_SIZE];											// The total of the red channel of each pixel's samples.
+		final int[] green = new int[TILE_SIZE];											// The total of the green channel of each pixel's samples.
+		final int[] blue = new int[TILE_SIZE];											// The total of the blue channel of each pixel's samples.
+		final int[] lowest = new int[TILE_SIZE];										// The fewest iterations among each pixel's samples.
+		final int[] highest = new int[TILE_SIZE];										// The most iterations among each pixel's samples.
+		final double[] cReal = new double[TILE_SIZE * EDGE_GRID];						// The real component of each sample of a row of the grid.
+		final int[] found = new int[TILE_SIZE * EDGE_GRID];								// The iterations of each sample of a row of the grid.
+		final float[] fractions = new float[TILE_SIZE * EDGE_GRID];						// The fraction of an iteration each sample of a row of the grid got past them.
+		int count;																		// The number of pixels being sampled.
+		
+		/**
+		 * Adds a pixel to the row, with no samples yet.
+		 * @param column the column of the pixel.
+		 */
+		void add(int column) {
+			x[count] = column;
+			busy[count] = count;
+			red[count] = green[count] = blue[count] = 0;
+			lowest[count] = Integer.MAX_VALUE;
+			highest[count] = Integer.MIN_VALUE;
+			count++;
+		}
+		
+		/**
+		 * Adds a sample to a pixel's totals.
+		 * @param k the index of the pixel.
+		 * @param n the number of iterations of the sample.
+		 * @param color the packed 0xRRGGBB color of the sample.
+		 */
+		void take(int k, int n, int color) {
+			red[k] += (color >> 16) & 0xFF;
+			green[k] += (color >> 8) & 0xFF;
+			blue[k] += color & 0xFF;
+			lowest[k] = Math.min(lowest[k], n);
+			highest[k] = Math.max(highest[k], n);
+		}
+		
+		/**
+		 * Draws a pixel in the average color of its samples, over what the earlier passes drew.
+		 * @param frame the frame being rendered.
+		 * @param y the row of the pixel.
+		 * @param k the index of the pixel.
+		 * @param samples the number of samples taken of the pixel.
+		 */
+		void draw(Frame frame, int y, int k, int samples) {
+			frame.data[y * frame.scanline + x[k]] = ((red[k] / samples) << 16) | ((green[k] / samples) << 8) | (blue[k] / samples);
+		}
+	}
+	
+	/**
+	 * The working space a thread needs to compute the samples along a row of a tile in one batch.
+	 */
+	private static class RowBuffers {
+		final int[] pixels = new int[TILE_SIZE];										// The index in counts of each sample.
+		final double[] cReal = new double[TILE_SIZE];									// The real component of each sample.
+		final int[] found = new int[TILE_SIZE];											// The iterations each sample starts from, then those it ends with.
+		final float[] fractions = new float[TILE_SIZE];									// The fraction of an iteration each sample got past them.
+		final double[] lastReal = new double[TILE_SIZE];								// The real component of z each sample starts from, then is left at.
+		final double[] lastImag = new double[TILE_SIZE];								// The imaginary component of z each sample starts from, then is left at.
+	}
+	
+	/**
+	 * One thread's histogram of the samples it has tallied since the end of the last pass.
+	 */
+	private static class Tally {
+		private int[] bins = new int[0];												// The number of samples with each whole continuous count.
+		
+		/**
+		 * Empties the histogram, making it the right size for a new frame. Only to be called between passes.
+		 * @param limit the maximum number of iterations of the new frame.
+		 */
+		void reset(int limit) {
+			if (bins.length != limit)
+				bins = new int[limit];
+			else
+				Arrays.fill(bins, 0);
+		}
+		
+		/**
+		 * Returns the histogram for the calling thread to tally into.
+		 * @param limit the maximum number of iterations of the frame.
+		 * @return the number of samples with each whole continuous count, from 0 to one less than the limit.
+		 */
+		int[] bins(int limit) {
+			// A thread which joined the pool since the frame started hasn't been reset for it.
+			if (bins.length != limit)
+				bins = new int[limit];
+			return bins;
+		}
+		
+		/**
+		 * Adds the histogram into another one and empties it. Only to be called between passes.
+		 * @param histogram the histogram to add to, of the same size.
+		 */
+		void drainInto(int[] histogram) {
+			if (bins.length != histogram.length)
+				return;
+			for (int n = 0; n < bins.length; n++) {
+				histogram[n] += bins[n];
+				bins[n] = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+import java.math.*;
+
+/**
+ * Computes the iterations of a deeply zoomed view by perturbation. The orbit of a single reference point, in the middle of
+ * the view, is worked out once with as many digits as the depth calls for. Every other pixel c is then followed as a small
+ * offset from it: if Z is the reference orbit and z = Z + d, then d' = 2Zd + d^2 + (c - C), which needs nothing finer than a
+ * double no matter how deep the view is, since the offsets are only as large as the view.
+ * <p>
+ * The first iterations are skipped altogether for every pixel by a series approximation of the offset in terms of c - C,
+ * as long as the truncated series stays well within a pixel. When a pixel's orbit strays so close to zero that its offset
+ * outgrows the orbit itself, the doubles can no longer follow it (a glitch); the pixel is then rebased, taking its orbit
+ * as an offset from the start of the reference orbit again. The same is done once the reference escapes before the pixel.
+ * <p>
+ * As long as the depth leaves enough room, the reference orbit is worked out with a {@link DoubleDoubleComplex} rather
+ * than with <code>BigDecimal</code>s, which is many times faster.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+class ReferenceOrbit {
+	private static final int EXTRA_DIGITS = 20;											// The number of digits kept beyond those needed to tell pixels apart.
+	private static final int DOUBLE_DOUBLE_DIGITS = 32;									// The number of digits a DoubleDoubleComplex holds.
+	private static final int DOUBLE_DOUBLE_MARGIN = 10;									// The number of digits it must have to spare, beyond those needed to tell pixels apart.
+	private static final double SERIES_TOLERANCE = 1e-3;								// The largest error the series may make, as a fraction of the offset between neighbouring pixels.
+	
+	private double[] orbitReal;															// The real component of each step of the reference orbit, rounded to a double.
+	private double[] orbitImag;															// The imaginary component of each step of the reference orbit.
+	private int length;																	// The number of steps of the reference orbit, up to and including its escape.
+	private int limit;																	// The maximum number of iterations to perform for each point.
+	private double scale;																// The number of units on the plane per pixel.
+	private int referenceColumn;														// The column of the view holding the reference point.
+	private int referenceRow;															// The row of the view holding the reference point.
+	private double referenceReal;														// The real component of the reference point, rounded to a double.
+	private double referenceImag;														// The imaginary component of the reference point, rounded to a double.
+	private int skipped;																// The number of iterations the series approximation skips.
+	private double aReal, aImag, bReal, bImag, cReal, cImag;							// The coefficients of the series at the skipped iteration.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Works out the reference orbit of a view, and how far the series approximation can take its pixels.
+	 * @param view the view of the plane being drawn.
+	 * @param width the width, in pixels, of the view.
+	 * @param height the height, in pixels, of the view.
+	 * @param limit the maximum number of iterations to perform for each point.
+	 */
+	ReferenceOrbit(Viewport view, int width, int height, int limit) {
+		this.limit = limit;
+		scale = view.getScale();
+		referenceColumn = width / 2;
+		referenceRow = height / 2;
+		orbitReal = new double[limit + 1];
+		orbitImag = new double[limit + 1];
+		referenceReal = view.exactReal(referenceColumn).doubleValue();
+		referenceImag = view.exactImag(referenceRow).doubleValue();
+		if (-Math.log10(scale) + DOUBLE_DOUBLE_MARGIN <= DOUBLE_DOUBLE_DIGITS)
+			computeOrbit(new DoubleDoubleComplex(view.exactReal(referenceColumn), view.exactImag(referenceRow)));
+		else
+			computeOrbit(view.exactReal(referenceColumn), view.exactImag(referenceRow));
+		
+		// The series has to hold for the point furthest from the reference, which can lie anywhere within the pixels at the edge.
+		double radius = scale * Math.hypot(Math.max(referenceColumn, width - 1 - referenceColumn) + 0.5, Math.max(referenceRow, height - 1 - referenceRow) + 0.5);
+		approximateSeries(radius);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Iterates the reference point with enough digits to tell the pixels of the view apart, keeping every step as a double.
+	 * @param real the exact real component of the reference point.
+	 * @param imag the exact imaginary component of the reference point.
+	 */
+	private void computeOrbit(BigDecimal real, BigDecimal imag) {
+		MathContext context = new MathContext(EXTRA_DIGITS + (int) Math.max(0, -Math.log10(scale)));
+		real = real.round(context);
+		imag = imag.round(context);
+		BigDecimal two = BigDecimal.valueOf(2);
+		BigDecimal zReal = BigDecimal.ZERO;
+		BigDecimal zImag = BigDecimal.ZERO;
+		length = 0;
+		while (length <= limit) {
+			orbitReal[length] = zReal.doubleValue();
+			orbitImag[length] = zImag.doubleValue();
+			length++;
+			if (orbitReal[length - 1] * orbitReal[length - 1] + orbitImag[length - 1] * orbitImag[length - 1] > 4.0)
+				break;
+			BigDecimal nextImag = two.multiply(zReal).multiply(zImag, context).add(imag, context);
+			zReal = zReal.multiply(zReal, context).subtract(zImag.multiply(zImag, context), context).add(real, context);
+			zImag = nextImag;
+		}
+	}
+	
+	/**
+	 * Iterates the reference point in double-double precision, keeping every step as a double.
+	 * @param c the reference point.
+	 */
+	private void computeOrbit(DoubleDoubleComplex c) {
+		DoubleDoubleComplex z = new DoubleDoubleComplex(0, 0);
+		length = 0;
+		while (length <= limit) {
+			orbitReal[length] = z.getReal();
+			orbitImag[length] = z.getImag();
+			length++;
+			if (orbitReal[length - 1] * orbitReal[length - 1] + orbitImag[length - 1] * orbitImag[length - 1] > 4.0)
+				break;
+			z.square();
+			z.add(c);
+		}
+	}
+	
+	/**
+	 * Finds how many iterations the series d = A(c - C) + B(c - C)^2 + C'(c - C)^3 can skip for every pixel of the view.
+	 * It stops once the cubic term grows large enough to stand for a noticeable error, and never goes as far as a step at
+	 * which a pixel could escape or need rebasing.
+	 * @param radius the largest distance between the reference point and a pixel of the view.
+	 */
+	private void approximateSeries(double radius) {
+		double aR = 0, aI = 0, bR = 0, bI = 0, cR = 0, cI = 0;
+		for (int n = 0; n + 1 < length - 1; n++) {
+			// A' = 2ZA + 1, B' = 2ZB + A^2, C' = 2ZC + 2AB
+			double zR = 2 * orbitReal[n];
+			double zI = 2 * orbitImag[n];
+			double nextAR = zR * aR - zI * aI + 1;
+			double nextAI = zR * aI + zI * aR;
+			double nextBR = zR * bR - zI * bI + aR * aR - aI * aI;
+			double nextBI = zR * bI + zI * bR + 2 * aR * aI;
+			double nextCR = zR * cR - zI * cI + 2 * (aR * bR - aI * bI);
+			double nextCI = zR * cI + zI * cR + 2 * (aR * bI + aI * bR);
+			
+			// The offset of any pixel at step n + 1 is no larger than this.
+			double a = Math.hypot(nextAR, nextAI);
+			double bound = a * radius + Math.hypot(nextBR, nextBI) * radius * radius + Math.hypot(nextCR, nextCI) * radius * radius * radius;
+			double orbit = Math.hypot(orbitReal[n + 1], orbitImag[n + 1]);
+			if (Math.hypot(nextCR, nextCI) * radius * radius * radius > SERIES_TOLERANCE * a * scale || 2 * bound >= orbit || orbit + bound > 2)
+				break;
+			aR = nextAR;
+			aI = nextAI;
+			bR = nextBR;
+			bI = nextBI;
+			cR = nextCR;
+			cI = nextCI;
+			skipped = n + 1;
+		}
+		aReal = aR;
+		aImag = aI;
+		bReal = bR;
+		bImag = bI;
+		cReal = cR;
+		cImag = cI;
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a point of the view, usually a pixel.
+	 * @param column the column of the point, counted from the left of the view, with a fraction for points between pixels.
+	 * @param row the row of the point, counted from the top of the view, with a fraction for points between pixels.
+	 * @return the number of iterations before the point leaves a circle of radius 2, or the limit if it never does.
+	 */
+	int iterations(double column, double row) {
+		return iterations(column, row, null, 0);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a point of the view, along with how far past them the
+	 * point got before escaping.
+	 * @param column the column of the point, counted from the left of the view, with a fraction for points between pixels.
+	 * @param row the row of the point, counted from the top of the view, with a fraction for points between pixels.
+	 * @param fractions receives the fraction of an iteration the point got past the ones counted, as worked out by
+	 *        {@link MandelbrotRenderer#escapeFraction(double, double, double, double)}, or 0 if it never escapes. May be null.
+	 * @param index the index in fractions to store it at.
+	 * @return the number of iterations before the point leaves a circle of radius 2, or the limit if it never does.
+	 */
+	int iterations(double column, double row, float[] fractions, int index) {
+		return iterations(column, row, 0, fractions, null, null, null, index);
+	}
+	
+	/**
+	 * Calculates the number of iterations of the Mandelbrot Rule for a point of the view, as
+	 * {@link #iterations(double, double, float[], int)} does, carrying on from where it was left by an earlier orbit of the
+	 * same view with a lower limit if need be. The point's offset from the reference orbit is what is kept between the two,
+	 * rather than z itself, which would round away what tells the pixels apart.
+	 * @param column the column of the point, counted from the left of the view, with a fraction for points between pixels.
+	 * @param row the row of the point, counted from the top of the view, with a fraction for points between pixels.
+	 * @param start the number of iterations the point has already run without escaping, or 0 to start it afresh.
+	 * @param fractions receives the fraction of an iteration the point got past the ones counted, or 0 if it never escapes.
+	 *        May be null.
+	 * @param lastReal holds the real component of the point's offset after the iterations already run, and receives it
+	 *        if the point runs out the limit. May be null if start is 0.
+	 * @param lastImag the same for the imaginary component of the offset.
+	 * @param lastStep the same for the step of the reference orbit the offset is taken from.
+	 * @param index the index in fractions, lastReal, lastImag and lastStep of the point.
+	 * @return the number of iterations before the point leaves a circle of radius 2, or the limit if it never does.
+	 */
+	int iterations(double column, double row, int start, float[] fractions, double[] lastReal, double[] lastImag, int[] lastStep, int index) {
+		// The offset of the pixel from the reference point. Rows run towards negative imaginary components.
+		double dcReal = (column - referenceColumn) * scale;
+		double dcImag = (referenceRow - row) * scale;
+		
+		// Jump ahead with the series, unless the point has been followed before.
+		double dc2Real = dcReal * dcReal - dcImag * dcImag;
+		double dc2Imag = 2 * dcReal * dcImag;
+		double dc3Real = dc2Real * dcReal - dc2Imag * dcImag;
+		double dc3Imag = dc2Real * dcImag + dc2Imag * dcReal;
+		double dReal = aReal * dcReal - aImag * dcImag + bReal * dc2Real - bImag * dc2Imag + cReal * dc3Real - cImag * dc3Imag;
+		double dImag = aReal * dcImag + aImag * dcReal + bReal * dc2Imag + bImag * dc2Real + cReal * dc3Imag + cImag * dc3Real;
+		int counter = skipped;
+		int step = skipped;																// The step of the reference orbit the offset is taken from.
+		if (start > 0) {
+			dReal = lastReal[index];
+			dImag = lastImag[index];
+			counter = start;
+			step = lastStep[index];
+		}
+		
+		while (counter < limit) {
+			double zReal = orbitReal[step] + dReal;
+			double zImag = orbitImag[step] + dImag;
+			double modulus = zReal * zReal + zImag * zImag;
+			if (modulus > 4.0) {
+				// Once it has escaped, the point is far enough from the reference for doubles to follow it on their own.
+				if (fractions != null)
+					fractions[index] = MandelbrotRenderer.escapeFraction(zReal, zImag, referenceReal + dcReal, referenceImag + dcImag);
+				return counter;
+			}
+			
+			// Rebase onto the start of the reference orbit if the offset has outgrown the orbit, or the reference is spent.
+			if (modulus < dReal * dReal + dImag * dImag || step == length - 1) {
+				dReal = zReal;
+				dImag = zImag;
+				step = 0;
+			}
+			
+			// d' = 2Zd + d^2 + dc
+			double nextReal = 2 * (orbitReal[step] * dReal - orbitImag[step] * dImag) + dReal * dReal - dImag * dImag + dcReal;
+			dImag = 2 * (orbitReal[step] * dImag + orbitImag[step] * dReal) + 2 * dReal * dImag + dcImag;
+			dReal = nextReal;
+			step++;
+			counter++;
+		}
+		if (fractions != null)
+			fractions[index] = 0;
+		if (lastReal != null) {
+			lastReal[index] = dReal;
+			lastImag[index] = dImag;
+			lastStep[index] = step;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,129 @@
+import java.math.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Remembers the iterations of tiles already rendered, so that views we come back to, or views overlapping them, don't have
+ * to be computed again. Tiles are identified by the grid of their view, down to its zoom level, their position on that
+ * grid's fixed grid of tiles and the maximum number of iterations they were computed with. The iterations, and the fractions of an iteration each pixel
+ * got past them, are kept off the heap in blocks of memory sized by the budget, and the least recently used tiles make way
+ * once it is full.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+class TileCache {
+	private int tileSize;																// The width and height, in pixels, of a tile.
+	private IntBuffer slots;															// The off-heap block holding the iterations of every cached tile.
+	private FloatBuffer fractionSlots;													// The off-heap block holding the fractions of every cached tile, slot for slot.
+	private ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();					// The slots not holding a tile.
+	private LinkedHashMap<Key, Integer> index = new LinkedHashMap<Key, Integer>(16, 0.75f, true);	// The slot of each cached tile, least recently used first.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Creates an empty cache.
+	 * @param tileSize the width and height, in pixels, of a tile.
+	 * @param budget the number of bytes the cache may take up.
+	 */
+	TileCache(int tileSize, long budget) {
+		this.tileSize = tileSize;
+		int count = (int) Math.min(budget / (8L * tileSize * tileSize), Integer.MAX_VALUE / (4 * tileSize * tileSize));
+		slots = ByteBuffer.allocateDirect(count * tileSize * tileSize * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		fractionSlots = ByteBuffer.allocateDirect(count * tileSize * tileSize * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int i = 0; i < count; i++) {
+			freeSlots.push(i);
+		}
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Copies part of a cached tile out, if we have it.
+	 * @param view a view on the grid of the tile.
+	 * @param tileX the column of the tile on the grid's tiles.
+	 * @param tileY the row of the tile on the grid's tiles.
+	 * @param limit the maximum number of iterations the tile must have been computed with.
+	 * @param x0 the first column of the tile to copy.
+	 * @param y0 the first row of the tile to copy.
+	 * @param w the number of columns to copy.
+	 * @param h the number of rows to copy.
+	 * @param dst the array to copy the iterations into.
+	 * @param fractions the array to copy the fractions into, laid out the same way.
+	 * @param offset the index in the arrays of the first pixel to copy.
+	 * @param stride the distance in the arrays from one row to the next.
+	 * @return <code>true</code> if the tile was found and copied.
+	 */
+	synchronized boolean read(Viewport view, BigInteger tileX, BigInteger tileY, int limit, int x0, int y0, int w, int h, int[] dst, float[] fractions,
+			int offset, int stride) {
+		Integer slot = index.get(new Key(view, tileX, tileY, limit));
+		if (slot == null)
+			return false;
+		for (int y = 0; y < h; y++) {
+			slots.position((slot * tileSize + y0 + y) * tileSize + x0);
+			slots.get(dst, offset + y * stride, w);
+			fractionSlots.position((slot * tileSize + y0 + y) * tileSize + x0);
+			fractionSlots.get(fractions, offset + y * stride, w);
+		}
+		return true;
+	}
+	
+	/**
+	 * Stores a whole tile, making room by dropping the least recently used tiles if need be.
+	 * @param view a view on the grid of the tile.
+	 * @param tileX the column of the tile on the grid's tiles.
+	 * @param tileY the row of the tile on the grid's tiles.
+	 * @param limit the maximum number of iterations the tile was computed with.
+	 * @param src the array holding the iterations of the tile.
+	 * @param fractions the array holding the fractions of the tile, laid out the same way.
+	 * @param offset the index in the arrays of the tile's first pixel.
+	 * @param stride the distance in the arrays from one row to the next.
+	 */
+	synchronized void write(Viewport view, BigInteger tileX, BigInteger tileY, int limit, int[] src, float[] fractions, int offset, int stride) {
+		Key key = new Key(view, tileX, tileY, limit);
+		if (index.containsKey(key))
+			return;
+		if (freeSlots.isEmpty()) {
+			if (index.isEmpty())
+				return;
+			Iterator<Integer> eldest = index.values().iterator();
+			freeSlots.push(eldest.next());
+			eldest.remove();
+		}
+		int slot = freeSlots.pop();
+		for (int y = 0; y < tileSize; y++) {
+			slots.position((slot * tileSize + y) * tileSize);
+			slots.put(src, offset + y * stride, tileSize);
+			fractionSlots.position((slot * tileSize + y) * tileSize);
+			fractionSlots.put(fractions, offset + y * stride, tileSize);
+		}
+		index.put(key, slot);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * What a tile is looked up by.
+	 */
+	private static class Key {
+		private final Viewport grid;													// A view on the grid of the tile, down to its zoom level.
+		private final BigInteger tileX;													// The column of the tile on the grid's tiles.
+		private final BigInteger tileY;													// The row of the tile on the grid's tiles.
+		private final int limit;														// The maximum number of iterations the tile was computed with.
+		
+		Key(Viewport grid, BigInteger tileX, BigInteger tileY, int limit) {
+			this.grid = grid;
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.limit = limit;
+		}
+		
+		public boolean equals(Object o) {
+			Key other = (Key) o;
+			return grid.sharesGrid(other.grid) && tileX.equals(other.tileX) && tileY.equals(other.tileY) && limit == other.limit;
+		}
+		
+		public int hashCode() {
+			return Objects.hash(grid.gridHashCode(), tileX, tileY, limit);
+		}
+	}
+}
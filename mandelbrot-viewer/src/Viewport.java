@@ -0,0 +1,209 @@
+import java.math.*;
+import java.util.*;
+
+/**
+ * A view of the complex plane, pinned to a grid of pixels. Every pixel of the grid sits at a fixed point of the plane,
+ * worked out from its whole-numbered grid position, so two views on the same grid agree exactly wherever they overlap.
+ * Panning moves the view by a whole number of pixels along the grid. Zooming moves it to the grid of another zoom level,
+ * each level being a fixed factor finer than the one before, so that any level always has exactly the same grid.
+ * <p>
+ * Grid positions are whole numbers of any size, so views can go far deeper than a <code>double</code> can tell pixels
+ * apart. Past that point, the exact position of a pixel on the plane is available as a <code>BigDecimal</code>.
+ * @author Eric Leblanc
+ * @version 1.0, 20/03/15.
+ */
+class Viewport {
+	private final double originReal;													// The real component of the point at grid position (0, 0).
+	private final double originImag;													// The imaginary component of the point at grid position (0, 0).
+	private final double baseScale;														// The number of units on the plane per pixel at level 0.
+	private final double zoomFactor;													// The factor by which the scale shrinks from one level to the next.
+	private final int level;															// The zoom level of the view's grid.
+	private final double scale;															// The number of units on the plane per pixel at this level.
+	private final BigInteger x;															// The grid column of the view's left-most pixels.
+	private final BigInteger y;															// The grid row of the view's top-most pixels.
+	private final double xApprox;														// The grid column as a double, exact until the grid grows past 2^53 pixels.
+	private final double yApprox;														// The grid row as a double.
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Creates a view at level 0 whose top-left pixel sits at the origin of the grid.
+	 * @param originReal the real component of the point at grid position (0, 0).
+	 * @param originImag the imaginary component of the point at grid position (0, 0).
+	 * @param baseScale the number of units on the plane per pixel at level 0.
+	 * @param zoomFactor the factor by which the scale shrinks from one level to the next.
+	 */
+	Viewport(double originReal, double originImag, double baseScale, double zoomFactor) {
+		this(originReal, originImag, baseScale, zoomFactor, 0, BigInteger.ZERO, BigInteger.ZERO);
+	}
+	
+	/**
+	 * Creates a view whose top-left pixel sits at the given grid position.
+	 * @param originReal the real component of the point at grid position (0, 0).
+	 * @param originImag the imaginary component of the point at grid position (0, 0).
+	 * @param baseScale the number of units on the plane per pixel at level 0.
+	 * @param zoomFactor the factor by which the scale shrinks from one level to the next.
+	 * @param level the zoom level of the grid.
+	 * @param x the grid column of the view's left-most pixels.
+	 * @param y the grid row of the view's top-most pixels. Rows run downwards, towards negative imaginary components.
+	 */
+	private Viewport(double originReal, double originImag, double baseScale, double zoomFactor, int level, BigInteger x, BigInteger y) {
+		this.originReal = originReal;
+		this.originImag = originImag;
+		this.baseScale = baseScale;
+		this.zoomFactor = zoomFactor;
+		this.level = level;
+		this.scale = baseScale * Math.pow(zoomFactor, level);
+		this.x = x;
+		this.y = y;
+		xApprox = x.doubleValue();
+		yApprox = y.doubleValue();
+	}
+	
+	/**
+	 * Creates a view of a fixed scale centered, as closely as its grid allows, on a point given to any precision. The grid
+	 * is anchored at the origin of the plane, and has no other zoom levels.
+	 * @param centerReal the real component of the point to center on.
+	 * @param centerImag the imaginary component of the point to center on.
+	 * @param scale the number of units on the plane per pixel.
+	 * @param width the width, in pixels, of the view.
+	 * @param height the height, in pixels, of the view.
+	 * @return the new view.
+	 */
+	static Viewport centeredOn(BigDecimal centerReal, BigDecimal centerImag, double scale, int width, int height) {
+		BigDecimal pixel = new BigDecimal(scale);
+		BigInteger x = centerReal.divide(pixel, 0, RoundingMode.HALF_EVEN).toBigInteger().subtract(BigInteger.valueOf(width / 2));
+		BigInteger y = centerImag.negate().divide(pixel, 0, RoundingMode.HALF_EVEN).toBigInteger().subtract(BigInteger.valueOf(height / 2));
+		return new Viewport(0, 0, scale, 1, 0, x, y);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Returns the real component of a column of the view.
+	 * @param column the column, counted from the left of the view, with a fraction for points between pixels.
+	 * @return the real component of every pixel in that column.
+	 */
+	double real(double column) {
+		return originReal + ((xApprox + column) * scale);
+	}
+	
+	/**
+	 * Returns the imaginary component of a row of the view.
+	 * @param row the row, counted from the top of the view, with a fraction for points between pixels.
+	 * @return the imaginary component of every pixel in that row.
+	 */
+	double imag(double row) {
+		return originImag - ((yApprox + row) * scale);
+	}
+	
+	/**
+	 * Returns the exact real component of a column of the view, for when a double isn't fine enough to tell it apart.
+	 * @param column the column, counted from the left of the view.
+	 * @return the real component of every pixel in that column.
+	 */
+	BigDecimal exactReal(int column) {
+		return new BigDecimal(originReal).add(new BigDecimal(x.add(BigInteger.valueOf(column))).multiply(new BigDecimal(scale)));
+	}
+	
+	/**
+	 * Returns the exact imaginary component of a row of the view, for when a double isn't fine enough to tell it apart.
+	 * @param row the row, counted from the top of the view.
+	 * @return the imaginary component of every pixel in that row.
+	 */
+	BigDecimal exactImag(int row) {
+		return new BigDecimal(originImag).subtract(new BigDecimal(y.add(BigInteger.valueOf(row))).multiply(new BigDecimal(scale)));
+	}
+	
+	/**
+	 * Returns this view moved along its grid.
+	 * @param columns the number of pixels to move right, or left if negative.
+	 * @param rows the number of pixels to move down, or up if negative.
+	 * @return the moved view.
+	 */
+	Viewport pan(long columns, long rows) {
+		return new Viewport(originReal, originImag, baseScale, zoomFactor, level, x.add(BigInteger.valueOf(columns)), y.add(BigInteger.valueOf(rows)));
+	}
+	
+	/**
+	 * Returns a view on the grid of another zoom level, centered as closely as that grid allows on one of our pixels.
+	 * @param column the column, counted from the left of the view, of the pixel to center on.
+	 * @param row the row, counted from the top of the view, of the pixel to center on.
+	 * @param levels the number of levels to zoom in by, or out by if negative.
+	 * @param width the width, in pixels, of the view.
+	 * @param height the height, in pixels, of the view.
+	 * @return the new view.
+	 */
+	Viewport zoom(int column, int row, int levels, int width, int height) {
+		Viewport zoomed = new Viewport(originReal, originImag, baseScale, zoomFactor, level + levels, BigInteger.ZERO, BigInteger.ZERO);
+		BigInteger centerX = rescale(x.add(BigInteger.valueOf(column)), zoomed.scale);
+		BigInteger centerY = rescale(y.add(BigInteger.valueOf(row)), zoomed.scale);
+		return new Viewport(originReal, originImag, baseScale, zoomFactor, level + levels,
+				centerX.subtract(BigInteger.valueOf(width / 2)), centerY.subtract(BigInteger.valueOf(height / 2)));
+	}
+	
+	/**
+	 * Finds the position on another level's grid nearest to a position on ours.
+	 * @param position the position on our grid.
+	 * @param newScale the number of units on the plane per pixel of the other grid.
+	 * @return the nearest position on the other grid, rounding halves upwards.
+	 */
+	private BigInteger rescale(BigInteger position, double newScale) {
+		MathContext context = new MathContext(position.bitLength() / 3 + 20);
+		BigDecimal exact = new BigDecimal(position).multiply(new BigDecimal(scale)).divide(new BigDecimal(newScale), context);
+		return exact.add(new BigDecimal("0.5")).setScale(0, RoundingMode.FLOOR).toBigIntegerExact();
+	}
+	
+	/**
+	 * Tells whether another view lies on the same grid as this one, in which case their pixels line up exactly.
+	 * @param other the other view.
+	 * @return <code>true</code> if the two views share a grid.
+	 */
+	boolean sharesGrid(Viewport other) {
+		return other != null && originReal == other.originReal && originImag == other.originImag && baseScale == other.baseScale
+				&& zoomFactor == other.zoomFactor && level == other.level;
+	}
+	
+	/**
+	 * Returns a hash code for the view's grid, the same for any two views which share it.
+	 * @return the hash code of the grid.
+	 */
+	int gridHashCode() {
+		// Adding zero folds -0.0 into 0.0, which sharesGrid counts as equal.
+		return Objects.hash(originReal + 0.0, originImag + 0.0, baseScale + 0.0, zoomFactor + 0.0, level);
+	}
+	
+	//---------------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * A getter method for the zoom level of the view.
+	 * @return the zoom level of the view's grid.
+	 */
+	int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * A getter method for the scale of the view.
+	 * @return the number of units on the plane per pixel.
+	 */
+	double getScale() {
+		return scale;
+	}
+	
+	/**
+	 * A getter method for the grid column of the view.
+	 * @return the grid column of the view's left-most pixels.
+	 */
+	BigInteger getX() {
+		return x;
+	}
+	
+	/**
+	 * A getter method for the grid row of the view.
+	 * @return the grid row of the view's top-most pixels.
+	 */
+	BigInteger getY() {
+		return y;
+	}
+}